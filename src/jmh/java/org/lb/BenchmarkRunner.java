@@ -0,0 +1,57 @@
+package org.lb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with 1, 2, 4, ... threads up to the number of available
+ * cores, collecting the allocation rate with the GC profiler.
+ * <p>
+ * If any argument is given, they are passed as is to JMH, e.g.
+ * <code>./gradlew jmh -PjmhArgs="LoadBalancerBenchmark -t 8 -prof gc"</code>.
+ */
+public class BenchmarkRunner {
+
+	private BenchmarkRunner() {
+		// avoid instantiation
+	}
+
+	static List<Integer> threadCounts(int cores) {
+		List<Integer> list = new ArrayList<>();
+		for (int i = 1; i < cores; i *= 2) {
+			list.add(i);
+		}
+		list.add(cores);
+		return list;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length > 0) {
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+
+		final int cores = Runtime.getRuntime().availableProcessors();
+		for (int threads : threadCounts(cores)) {
+			run(threads);
+		}
+	}
+
+	private static void run(int threads) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(LoadBalancerBenchmark.class.getSimpleName())
+				.threads(threads)
+				.addProfiler(GCProfiler.class)
+				.result("build/jmh-results-" + threads + "-threads.json")
+				.resultFormat(ResultFormatType.JSON)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,139 @@
+package org.lb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.lb.policies.LBPolicyFactory;
+import org.lb.provider.DefaultProvider;
+import org.lb.provider.Provider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time needed to serve a batch of concurrent requests with blocking (slow)
+ * providers:
+ * <ul>
+ * <li>platform: a pool of platform threads calls
+ * {@link LoadBalancerImpl#tryGet()}</li>
+ * <li>virtual: a single thread calls {@link LoadBalancerImpl#getAsync()}, each
+ * request runs on its own virtual thread</li>
+ * </ul>
+ * Virtual threads require JDK 21 or later, otherwise
+ * {@link VirtualThreads#newThreadPerTaskExecutor(int)} falls back to platform
+ * threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutionModeBenchmark {
+
+	private static final int PROVIDERS = 10;
+
+	private static final int PLATFORM_THREADS = 200;
+
+	/** Keep a strong reference, otherwise the level might be lost. */
+	private static final Logger lbLogger = Logger.getLogger("org.lb");
+
+	/** Provider sleeping before serving each request. */
+	static class SleepingProvider extends DefaultProvider {
+
+		private final long delayMs;
+
+		SleepingProvider(int id, long delayMs) {
+			super(id);
+			this.delayMs = delayMs;
+		}
+
+		@Override
+		public String get() {
+			try {
+				Thread.sleep(this.delayMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return super.get();
+		}
+	}
+
+	@Param({ "platform", "virtual" })
+	public String mode;
+
+	/** Number of concurrent requests per batch. */
+	@Param({ "10000" })
+	public int requests;
+
+	@Param({ "10" })
+	public long delayMs;
+
+	private ExecutorService executor;
+
+	private LoadBalancerImpl lb;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		lbLogger.setLevel(java.util.logging.Level.OFF);
+
+		ProvidersManager manager = LBPolicyFactory.createRoundRobinPolicy(PROVIDERS);
+		if ("virtual".equals(this.mode)) {
+			this.executor = VirtualThreads.newThreadPerTaskExecutor(PLATFORM_THREADS);
+			this.lb = new LoadBalancerImpl(this.requests, manager, this.executor);
+		} else {
+			this.executor = Executors.newFixedThreadPool(PLATFORM_THREADS);
+			this.lb = new LoadBalancerImpl(this.requests, manager);
+		}
+		List<Provider> list = new ArrayList<>(PROVIDERS);
+		for (int i = 0; i < PROVIDERS; i++) {
+			list.add(new SleepingProvider(i, this.delayMs));
+		}
+		this.lb.register(list);
+		this.lb.start();
+		new HeartBeatChecker(this.lb).run();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.lb.stop();
+		this.executor.shutdownNow();
+	}
+
+	@Benchmark
+	public long batch() throws InterruptedException {
+		if ("virtual".equals(this.mode)) {
+			CompletableFuture<?>[] futures = new CompletableFuture<?>[this.requests];
+			for (int i = 0; i < this.requests; i++) {
+				futures[i] = this.lb.getAsync().toCompletableFuture();
+			}
+			CompletableFuture.allOf(futures).join();
+		} else {
+			CountDownLatch done = new CountDownLatch(this.requests);
+			for (int i = 0; i < this.requests; i++) {
+				this.executor.execute(() -> {
+					this.lb.tryGet();
+					done.countDown();
+				});
+			}
+			done.await();
+		}
+		return this.lb.getSuccess();
+	}
+}
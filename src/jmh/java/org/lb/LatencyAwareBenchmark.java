@@ -0,0 +1,85 @@
+package org.lb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.lb.ExecutionModeBenchmark.SleepingProvider;
+import org.lb.provider.Provider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of {@link LoadBalancerImpl#tryGet()} with a mix of fast and slow
+ * (blocking) providers. Round robin sends 1/n of the requests to the slow
+ * provider, latency aware policies avoid it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class LatencyAwareBenchmark {
+
+	private static final int MAX_LOAD = 1_000_000;
+
+	/** Keep a strong reference, otherwise the level might be lost. */
+	private static final Logger lbLogger = Logger.getLogger("org.lb");
+
+	@Param({ "roundRobin", "leastConnections", "peakEwma" })
+	public String policy;
+
+	@Param({ "10" })
+	public int providers;
+
+	/** Number of slow providers. */
+	@Param({ "1" })
+	public int slow;
+
+	@Param({ "1" })
+	public long fastDelayMs;
+
+	@Param({ "50" })
+	public long slowDelayMs;
+
+	private LoadBalancerImpl lb;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		lbLogger.setLevel(java.util.logging.Level.OFF);
+
+		this.lb = new LoadBalancerImpl(MAX_LOAD, LoadBalancerBenchmark.createPolicy(this.policy, this.providers));
+		List<Provider> list = new ArrayList<>(this.providers);
+		for (int i = 0; i < this.providers; i++) {
+			list.add(new SleepingProvider(i, i < this.slow ? this.slowDelayMs : this.fastDelayMs));
+		}
+		this.lb.register(list);
+		this.lb.start();
+		new HeartBeatChecker(this.lb).run();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.lb.stop();
+	}
+
+	@Benchmark
+	public String tryGet() {
+		return this.lb.tryGet();
+	}
+}
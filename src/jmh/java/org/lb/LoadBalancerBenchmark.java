@@ -0,0 +1,204 @@
+package org.lb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.lb.policies.LBPolicyFactory;
+import org.lb.provider.DefaultProvider;
+import org.lb.provider.Provider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link LoadBalancerImpl#get()} and the bare policy selection
+ * ({@link ProvidersManager#getProvider()}), both with the {@link Optional}
+ * adapters and with the allocation-free methods.
+ * <p>
+ * The number of threads is not a parameter of the benchmark: use
+ * {@link BenchmarkRunner} to sweep it, or pass <code>-t</code> to JMH.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBalancerBenchmark {
+
+	/** Large enough to never reject requests because of overload. */
+	private static final int MAX_LOAD = 1_000_000;
+
+	/** Keep a strong reference, otherwise the level might be lost. */
+	private static final Logger lbLogger = Logger.getLogger("org.lb");
+
+	@Param({ "random", "roundRobin", "shardedRoundRobin", "leastConnections", "powerOfTwoChoices",
+			"weightedRoundRobin", "weightedRoundRobinTable", "consistentHash",
+			"boundedLoadConsistentHash", "peakEwma" })
+	public String policy;
+
+	@Param({ "1", "10" })
+	public int providers;
+
+	/**
+	 * If true, a background thread keeps running the heartbeat, and publishing a
+	 * new snapshot of the enabled providers after each cycle, alternately
+	 * replacing them all and disabling then enabling the last one.
+	 */
+	@Param({ "false", "true" })
+	public boolean heartbeat;
+
+	private ProvidersManager manager;
+
+	private LoadBalancerImpl lb;
+
+	private Thread heartbeatThread;
+
+	private volatile boolean running;
+
+	static ProvidersManager createPolicy(String policy, int maxProviders) {
+		switch (policy) {
+		case "random":
+			return LBPolicyFactory.createRandomPolicy(maxProviders);
+		case "roundRobin":
+			return LBPolicyFactory.createRoundRobinPolicy(maxProviders);
+		case "shardedRoundRobin":
+			return LBPolicyFactory.createShardedRoundRobinPolicy(maxProviders);
+		case "leastConnections":
+			return LBPolicyFactory.createLeastConnectionsPolicy(maxProviders);
+		case "powerOfTwoChoices":
+			return LBPolicyFactory.createPowerOfTwoChoicesPolicy(maxProviders);
+		case "weightedRoundRobin":
+			return LBPolicyFactory.createWeightedRoundRobinPolicy(maxProviders);
+		case "weightedRoundRobinTable":
+			return LBPolicyFactory.createWeightedRoundRobinPolicy(maxProviders, true);
+		case "consistentHash":
+			return LBPolicyFactory.createConsistentHashPolicy(maxProviders);
+		case "boundedLoadConsistentHash":
+			return LBPolicyFactory.createBoundedLoadConsistentHashPolicy(maxProviders);
+		case "peakEwma":
+			return LBPolicyFactory.createPeakEwmaPolicy(maxProviders);
+		default:
+			throw new IllegalArgumentException("Unknown policy: " + policy);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		lbLogger.setLevel(java.util.logging.Level.OFF);
+
+		this.manager = createPolicy(this.policy, this.providers);
+		this.lb = new LoadBalancerImpl(MAX_LOAD, this.manager);
+		List<Provider> list = new ArrayList<>(this.providers);
+		for (int i = 0; i < this.providers; i++) {
+			Provider provider = new DefaultProvider(i);
+			// only used by weighted policies
+			provider.setWeight(i + 1);
+			list.add(provider);
+		}
+		if (this.lb.register(list) != this.providers) {
+			throw new IllegalStateException("Cannot register all providers");
+		}
+		this.lb.start();
+		// do not wait for the scheduled heartbeat
+		new HeartBeatChecker(this.lb).run();
+
+		if (this.heartbeat) {
+			this.running = true;
+			final List<Provider> last = List.of(list.get(this.providers - 1));
+			this.heartbeatThread = new Thread(() -> {
+				HeartBeatChecker checker = new HeartBeatChecker(this.lb);
+				boolean all = true;
+				while (this.running) {
+					checker.run();
+					// the cycles without changes publish nothing, publish anyway
+					if (all) {
+						this.lb.setEnabledProviders(list);
+					} else if (this.lb.updateEnabledProviders(List.of(), last)) {
+						this.lb.updateEnabledProviders(last, List.of());
+					}
+					all = !all;
+					Thread.onSpinWait();
+				}
+			}, "heartbeat-benchmark");
+			this.heartbeatThread.setDaemon(true);
+			this.heartbeatThread.start();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		this.running = false;
+		if (this.heartbeatThread != null) {
+			this.heartbeatThread.join();
+		}
+		this.lb.stop();
+	}
+
+	@Benchmark
+	public Optional<String> get() {
+		return this.lb.get();
+	}
+
+	@Benchmark
+	public String tryGet() {
+		return this.lb.tryGet();
+	}
+
+	/** Request keys, e.g., user ids. */
+	@State(Scope.Thread)
+	public static class Keys {
+
+		private static final int KEYS = 1024;
+
+		private final String[] keys = new String[KEYS];
+
+		private int next;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			for (int i = 0; i < KEYS; i++) {
+				this.keys[i] = "user-" + i;
+				this.keys[i].hashCode(); // cached
+			}
+		}
+
+		String next() {
+			return this.keys[this.next++ & (KEYS - 1)];
+		}
+	}
+
+	@Benchmark
+	public String tryGetKey(Keys keys) {
+		return this.lb.tryGet(keys.next());
+	}
+
+	@Benchmark
+	public CompletionStage<Optional<String>> getAsync() {
+		return this.lb.getAsync();
+	}
+
+	@Benchmark
+	public Optional<Provider> getProvider() {
+		return this.manager.getProvider();
+	}
+
+	@Benchmark
+	public Provider selectProvider() {
+		return this.manager.selectProvider();
+	}
+}
@@ -0,0 +1,72 @@
+package org.lb;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lb.provider.DefaultProvider;
+import org.lb.provider.Provider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of recording a request in the {@link Metrics}, which is
+ * paid by every request on top of the policy selection. The clock is read by
+ * the benchmarks as by the load balancer.
+ * <p>
+ * The number of threads is not a parameter of the benchmark: use
+ * {@link BenchmarkRunner} to sweep it, or pass <code>-t</code> to JMH.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+	private Metrics metrics;
+
+	private Provider provider;
+
+	private LatencyHistogram histogram;
+
+	@Setup
+	public void setUp() {
+		this.metrics = new Metrics();
+		this.provider = new DefaultProvider();
+		this.metrics.add(this.provider);
+		this.histogram = new LatencyHistogram();
+	}
+
+	/** Record one latency in a histogram. */
+	@Benchmark
+	public void recordHistogram() {
+		this.histogram.record(1_234L);
+	}
+
+	/** Count one served request, in total and in the rolling window. */
+	@Benchmark
+	public void success() {
+		this.metrics.success(System.nanoTime());
+	}
+
+	/** Count one request forwarded to a provider in its rolling window. */
+	@Benchmark
+	public void selected() {
+		this.metrics.selected(this.provider, System.nanoTime());
+	}
+
+	/** Record one latency in the global and the provider histograms. */
+	@Benchmark
+	public void recordLatency() {
+		this.metrics.latency(this.provider, 1_234L);
+	}
+
+}
@@ -0,0 +1,107 @@
+package org.lb;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+import java.util.logging.StreamHandler;
+
+import org.lb.provider.DefaultProvider;
+import org.lb.provider.Provider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link LoadBalancerImpl#tryGet()} while all the providers are down,
+ * so that every request is rejected, with the logs enabled at the default
+ * level.
+ * <p>
+ * The logs of the load balancer are formatted and written by a
+ * {@link StreamHandler}, as by the default console handler, but to a null
+ * stream: the benchmark measures the logging path, not the terminal.
+ * <p>
+ * The number of threads is not a parameter of the benchmark: use
+ * {@link BenchmarkRunner} to sweep it, or pass <code>-t</code> to JMH.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutageBenchmark {
+
+	private static final int PROVIDERS = 10;
+
+	private static final int MAX_LOAD = 1_000_000;
+
+	/** Keep a strong reference, otherwise the handler might be lost. */
+	private static final Logger lbLogger = Logger.getLogger("org.lb");
+
+	private Handler handler;
+
+	private LoadBalancerImpl started;
+
+	private LoadBalancerImpl stopped;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.handler = new StreamHandler(OutputStream.nullOutputStream(), new SimpleFormatter());
+		lbLogger.setUseParentHandlers(false);
+		lbLogger.addHandler(this.handler);
+
+		this.started = new LoadBalancerImpl(MAX_LOAD, LoadBalancerBenchmark.createPolicy("roundRobin", PROVIDERS));
+		List<Provider> list = new ArrayList<>(PROVIDERS);
+		for (int i = 0; i < PROVIDERS; i++) {
+			list.add(new DefaultProvider(i) {
+				@Override
+				public boolean check() {
+					return false; // down
+				}
+			});
+		}
+		if (this.started.register(list) != PROVIDERS) {
+			throw new IllegalStateException("Cannot register all providers");
+		}
+		this.started.start();
+		// do not wait for the scheduled heartbeat
+		new HeartBeatChecker(this.started).run();
+		if (this.started.enabledProviders() != 0) {
+			throw new IllegalStateException("Providers should be down");
+		}
+
+		this.stopped = new LoadBalancerImpl(MAX_LOAD, LoadBalancerBenchmark.createPolicy("roundRobin", PROVIDERS));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.started.stop();
+		lbLogger.removeHandler(this.handler);
+		lbLogger.setUseParentHandlers(true);
+	}
+
+	/** Every request is rejected because no provider is enabled. */
+	@Benchmark
+	public String noProvider() {
+		return this.started.tryGet();
+	}
+
+	/** Every request is rejected because the load balancer is not started. */
+	@Benchmark
+	public String notStarted() {
+		return this.stopped.tryGet();
+	}
+}
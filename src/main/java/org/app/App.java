@@ -6,10 +6,12 @@ package org.app;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
 
 import org.lb.LoadBalancer;
 import org.lb.LoadBalancerImpl;
+import org.lb.VirtualThreads;
 import org.lb.policies.LBPolicyFactory;
 import org.lb.provider.DefaultProvider;
 import org.lb.provider.Provider;
@@ -20,6 +22,8 @@ public class App {
 	private static final int REQ_PER_THREAD = 100_000;
 	private static final int PROVIDERS = 10;
 	private static final int MAX_PROVIDERS = 7;
+	private static final int VIRTUAL_THREAD_REQUESTS = 1_000_000;
+	private static final int VIRTUAL_THREAD_MAX_LOAD = 1_000;
 
 	private static Logger logger = Logger.getLogger(App.class.getName());
 
@@ -89,7 +93,28 @@ public class App {
 
 		Utils.printSummary(lb);
 	}
-	
+
+	/**
+	 * One virtual thread per request, dispatched by the load balancer. Requests
+	 * beyond the capacity of the providers are rejected.
+	 */
+	public void virtualThreads() throws InterruptedException {
+		ExecutorService executor = VirtualThreads
+				.newThreadPerTaskExecutor(Runtime.getRuntime().availableProcessors());
+		var lb = new LoadBalancerImpl(VIRTUAL_THREAD_MAX_LOAD, LBPolicyFactory.createRandomPolicy(MAX_PROVIDERS),
+				executor);
+		lb.register(createProviders(MAX_PROVIDERS));
+
+		lb.start(); // first heart beat happens immediately
+		Thread.sleep(500L); // wait till the heartbeat completes
+
+		Utils.sendAsync(lb, VIRTUAL_THREAD_REQUESTS);
+
+		lb.stop();
+		executor.shutdown();
+
+		Utils.printSummary(lb);
+	}
 
 	public static void main(String[] args) throws InterruptedException {
 		logger.info("Running base case...");
@@ -98,5 +123,8 @@ public class App {
 		
 		logger.info("Running scenario where one provider is disabled");
 		new App().disableOneProvider();
+
+		logger.info("Running scenario with virtual threads");
+		new App().virtualThreads();
 	}
 }
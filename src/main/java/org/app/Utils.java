@@ -1,9 +1,11 @@
 package org.app;
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
 
 import org.lb.LoadBalancer;
+import org.lb.MetricsSnapshot;
 
 public class Utils {
 
@@ -15,11 +17,14 @@ public class Utils {
 	}
 	
 	public static void printSummary(LoadBalancer lb) {
+		MetricsSnapshot snapshot = lb.snapshot();
 		StringBuilder sb = new StringBuilder();
 		sb.append("Statistics:").append("\n");
-		sb.append("- Load: ").append(lb.getLoad()).append("\n");
-		sb.append("- Rejected requests: ").append(lb.getRejected()).append("\n");
-		sb.append("- Served requests: ").append(lb.getSuccess()).append("\n");
+		sb.append("- Load: ").append(snapshot.getArrivals()).append("\n");
+		sb.append("- Rejected requests: ").append(snapshot.getRejected()).append("\n");
+		sb.append("- Served requests: ").append(snapshot.getSuccess()).append("\n");
+		sb.append("- Latency: ").append(lb.latency()).append("\n");
+		sb.append("- Last 10 seconds: ").append(lb.rates(10)).append("\n");
 		sb.append("Per provider statistics:").append("\n");
 		lb.stats().forEach((k, v) -> {
 			sb.append("- Provider ").append(k).append(": ").append(v).append("\n");
@@ -43,7 +48,7 @@ public class Utils {
 					try {
 						startSignal.await();
 						for (int i = 0; i < requests; i++) {
-							if (lb.get().isPresent()) {
+							if (lb.tryGet() != null) {
 								success++;
 							} else {
 								fail++;
@@ -65,6 +70,31 @@ public class Utils {
 	}
 	
 	
+	/**
+	 * Issue the requests with {@link LoadBalancer#getAsync()}, without waiting for
+	 * each one, and wait until all of them complete.
+	 * 
+	 * @return The number of served requests.
+	 */
+	public static long sendAsync(LoadBalancer lb, int requests) {
+		LongAdder success = new LongAdder();
+		CountDownLatch doneSignal = new CountDownLatch(requests);
+		for (int i = 0; i < requests; i++) {
+			lb.getAsync().whenComplete((result, error) -> {
+				if (result != null && result.isPresent()) {
+					success.increment();
+				}
+				doneSignal.countDown();
+			});
+		}
+		waitCompletion(doneSignal);
+
+		StringBuilder sb = new StringBuilder("Asynchronous requests completed, ");
+		sb.append("success: ").append(success.sum()).append(", failed: ").append(requests - success.sum());
+		logger.info(sb.toString());
+		return success.sum();
+	}
+
 	public static void waitCompletion(CountDownLatch doneSignal) {
 		while (doneSignal.getCount() > 0L) {
 			try {
@@ -1,16 +1,93 @@
 package org.lb;
 
 import java.util.ArrayList;
-import java.util.logging.Logger;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
+import org.lb.log.LogEvent;
 import org.lb.provider.Provider;
 
+/**
+ * Health checks all the included providers and publishes the enabled ones.
+ * <p>
+ * The checks run concurrently on the load balancer's check executor, so a
+ * hanging check does not delay the others. A check that does not complete
+ * within the timeout, counted from the time it starts running, is interrupted
+ * and counts as failed. A provider whose previous check is still running, e.g.,
+ * ignoring the interruption, is not checked again and counts as failed too.
+ * <p>
+ * The checks waiting for a thread are not charged for it, but a cycle waits for
+ * them at most as long as it takes to run all the checks until their timeout,
+ * {@value LoadBalancerImpl#HEARTBEAT_PARALLELISM} at a time. Past that, e.g.,
+ * when overrunning checks hold all the threads, the checks still waiting are
+ * cancelled and count as failed. Once all checks have completed or timed out,
+ * the providers changing state are published, if any.
+ */
 class HeartBeatChecker implements Runnable {
-	
-	private static Logger logger = Logger.getLogger(HeartBeatChecker.class.getName());
+
+	private static final LogEvent LOG_HEARTBEAT = new LogEvent(HeartBeatChecker.class, Level.INFO,
+			"Heartbeat task...");
 
 	private final LoadBalancerImpl lb;
 
+	/** Health check of a provider, interrupted once it overruns its timeout. */
+	private static final class Check extends FutureTask<Boolean> {
+
+		private final Provider provider;
+
+		private final Set<Provider> running;
+
+		/** Completed with the outcome of the check, null if it timed out. */
+		final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+		Check(Provider provider, Set<Provider> running) {
+			super(provider::check);
+			this.provider = provider;
+			this.running = running;
+		}
+
+		@Override
+		public void run() {
+			// the timeout starts when the check runs, not when it is submitted;
+			// cancelling is cheap, done by the timer thread itself
+			CompletableFuture.delayedExecutor(LoadBalancerImpl.HEARTBEAT_CHECK_TIMEOUT_MS, TimeUnit.MILLISECONDS,
+					Runnable::run).execute(() -> cancel(true));
+			try {
+				super.run();
+			} finally {
+				if (isCancelled()) {
+					// the check may have ignored the interruption, it is over now
+					this.running.remove(this.provider);
+				}
+			}
+		}
+
+		@Override
+		protected void done() {
+			if (isCancelled()) {
+				this.result.complete(null);
+				return;
+			}
+			// before the next cycle may see the result
+			this.running.remove(this.provider);
+			try {
+				this.result.complete(get());
+			} catch (ExecutionException e) {
+				this.result.complete(Boolean.FALSE);
+			} catch (InterruptedException e) {
+				// cannot happen, the check is done
+				Thread.currentThread().interrupt();
+				this.result.complete(Boolean.FALSE);
+			}
+		}
+	}
+
 	HeartBeatChecker(LoadBalancerImpl lb) {
 		if (lb == null) {
 			throw new IllegalArgumentException("Null load balancer");
@@ -20,23 +97,82 @@ class HeartBeatChecker implements Runnable {
 
 	@Override
 	public void run() {
-		logger.info("Heartbeat task...");
-		ArrayList<Provider> enabled = new ArrayList<>();
-		
-		// excluded providers are not considered
-		this.lb.getProviders().stream().filter(x -> x.isIncluded()).forEach(x -> {
-			if (x.check()) {
-				// if the check succeeds, try to mark it as enabled
-				if (x.enable()) {
-					enabled.add(x);
+		LOG_HEARTBEAT.log();
+		final LoadBalancerEvents.HeartbeatEvent event = new LoadBalancerEvents.HeartbeatEvent();
+		event.begin();
+		final long start = System.nanoTime();
+		final Executor executor = this.lb.getCheckExecutor();
+		final Set<Provider> running = this.lb.getRunningChecks();
+
+		// excluded providers are not checked
+		List<Provider> included = new ArrayList<>();
+		// null if the previous check of the provider is still running
+		List<Check> checks = new ArrayList<>();
+		List<CompletableFuture<Boolean>> results = new ArrayList<>();
+		List<Provider> enable = new ArrayList<>();
+		List<Provider> disable = new ArrayList<>();
+		this.lb.forEachProvider(x -> {
+			if (x.isIncluded()) {
+				included.add(x);
+				if (running.add(x)) {
+					final Check check = new Check(x, running);
+					executor.execute(check);
+					checks.add(check);
+					results.add(check.result);
+				} else {
+					checks.add(null);
 				}
-			} else { // health check failed, mark as disabled
-				x.disable();
+			} else if (this.lb.isEnabled(x)) {
+				disable.add(x);
 			}
 		});
-		
-		// update the number of enabled providers
-		this.lb.setEnabledProviders(enabled);
+		final long rounds = (results.size() + LoadBalancerImpl.HEARTBEAT_PARALLELISM - 1)
+				/ LoadBalancerImpl.HEARTBEAT_PARALLELISM;
+		CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+				.completeOnTimeout(null, (rounds + 1) * LoadBalancerImpl.HEARTBEAT_CHECK_TIMEOUT_MS,
+						TimeUnit.MILLISECONDS)
+				.join();
+
+		// enable() and disable() are always called by this thread
+		int timedOut = 0;
+		for (int i = 0; i < included.size(); i++) {
+			final Provider x = included.get(i);
+			final Check check = checks.get(i);
+			if (check != null) {
+				// still waiting for a thread, if not done
+				check.cancel(false);
+			}
+			final Boolean result = check == null ? null : check.result.join();
+			if (result == null) {
+				timedOut++;
+			}
+			if (this.lb.takeEjected(x)) {
+				// ejected since the last cycle, it must pass the checks again
+				x.disable();
+			}
+			final boolean enabled;
+			if (Boolean.TRUE.equals(result)) {
+				// if the check succeeds, try to mark it as enabled
+				enabled = x.enable();
+			} else { // health check failed or timed out, mark as disabled
+				x.disable();
+				enabled = false;
+			}
+			if (enabled != this.lb.isEnabled(x)) {
+				(enabled ? enable : disable).add(x);
+			}
+		}
+
+		// only publish the providers changing state, if any
+		this.lb.updateEnabledProviders(enable, disable);
+		this.lb.heartbeatCompleted(System.nanoTime() - start, timedOut);
+		event.end();
+		if (event.shouldCommit()) {
+			event.checkedProviders = included.size();
+			event.timedOutChecks = timedOut;
+			event.enabledProviders = this.lb.enabledProviders();
+			event.commit();
+		}
 	}
 
 }
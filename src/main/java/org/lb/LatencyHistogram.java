@@ -0,0 +1,156 @@
+package org.lb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram, in the spirit of HdrHistogram.
+ * <p>
+ * Values are counted in log-linear buckets: each power of 2 is split into
+ * {@value #SUB_BUCKETS} sub-buckets, so that a value is known within 1/16 of
+ * itself (6.25%), up to 2^42 nanoseconds (about 73 minutes). Larger values
+ * are counted in the last bucket. The maximum and the sum are tracked exactly.
+ * <p>
+ * The counts are split into stripes, and each thread is mapped to a stripe as
+ * in the sharded round robin policy. Recording a value is two atomic additions
+ * to counters rarely shared with other threads, without lock nor allocation.
+ * The stripes are merged when read, so reading is O(stripes * buckets).
+ */
+class LatencyHistogram {
+
+	/** Number of sub-buckets of each power of 2, as a power of 2. */
+	private static final int SUB_BITS = 4;
+
+	static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/** Highest power of 2 with its own buckets. */
+	static final int MAX_EXPONENT = 41;
+
+	/** Number of buckets. */
+	static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) << SUB_BITS;
+
+	/** Slots of the maximum and the sum of a stripe, after its buckets. */
+	private static final int MAX = BUCKETS;
+	private static final int SUM = BUCKETS + 1;
+
+	/** Distance between the beginning of two stripes. */
+	private static final int WIDTH = BUCKETS + 2 + Stripes.STRIDE;
+
+	/** Number of stripes, a power of 2. */
+	private final int stripes;
+
+	private final AtomicLongArray counts;
+
+	LatencyHistogram() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param stripes Number of stripes, rounded up to the next power of 2.
+	 * @throws IllegalArgumentException If stripes <= 0.
+	 */
+	LatencyHistogram(int stripes) {
+		this.stripes = Stripes.count(stripes);
+		// one padding area at the beginning as well
+		counts = new AtomicLongArray(Stripes.STRIDE + this.stripes * WIDTH);
+	}
+
+	/** Get the bucket of a value. */
+	static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return value < 0L ? 0 : (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		final int shift = exponent - SUB_BITS;
+		return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	/** Get the lowest value counted in a bucket. */
+	static long lowestValue(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		final int shift = (bucket >>> SUB_BITS) - 1;
+		return (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+	}
+
+	/** Get the highest value counted in a bucket. */
+	static long highestValue(int bucket) {
+		if (bucket == BUCKETS - 1) {
+			return Long.MAX_VALUE;
+		}
+		return lowestValue(bucket + 1) - 1L;
+	}
+
+	private int base() {
+		return Stripes.STRIDE + Stripes.current(this.stripes) * WIDTH;
+	}
+
+	/**
+	 * Record a value. Does not lock nor allocate.
+	 *
+	 * @param nanos The latency, negative values are counted as 0.
+	 */
+	void record(long nanos) {
+		final int base = base();
+		this.counts.getAndIncrement(base + bucket(nanos));
+		this.counts.getAndAdd(base + SUM, Math.max(0L, nanos));
+		// the maximum is only written when it grows, which is rare
+		long max;
+		while (nanos > (max = this.counts.get(base + MAX))) {
+			if (this.counts.compareAndSet(base + MAX, max, nanos)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Merge the stripes. Concurrent recordings may or may not be included.
+	 */
+	LatencySnapshot snapshot() {
+		final long[] merged = new long[BUCKETS];
+		final long total = merge(merged);
+		return new LatencySnapshot(merged, total, getMax(), getSum());
+	}
+
+	/**
+	 * Merge the counts of the stripes into an array, without allocating.
+	 *
+	 * @param merged The count of each bucket, overwritten. Its length must be at
+	 *               least {@link #BUCKETS}.
+	 * @return The number of values.
+	 */
+	long merge(long[] merged) {
+		long total = 0L;
+		for (int i = 0; i < BUCKETS; i++) {
+			long count = 0L;
+			for (int s = 0; s < this.stripes; s++) {
+				count += this.counts.get(Stripes.STRIDE + s * WIDTH + i);
+			}
+			merged[i] = count;
+			total += count;
+		}
+		return total;
+	}
+
+	/** Get the highest value, or 0. */
+	long getMax() {
+		long max = 0L;
+		for (int s = 0; s < this.stripes; s++) {
+			max = Math.max(max, this.counts.get(Stripes.STRIDE + s * WIDTH + MAX));
+		}
+		return max;
+	}
+
+	/** Get the sum of the values. */
+	long getSum() {
+		long sum = 0L;
+		for (int s = 0; s < this.stripes; s++) {
+			sum += this.counts.get(Stripes.STRIDE + s * WIDTH + SUM);
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,108 @@
+package org.lb;
+
+/**
+ * Immutable view of a latency histogram taken at a given time. All the
+ * latencies are in nanoseconds.
+ * <p>
+ * The percentiles are accurate within 6.25%: they are the highest latency
+ * counted in the same bucket as the exact percentile, and never exceed the
+ * maximum.
+ */
+public final class LatencySnapshot {
+
+	/** Count of each bucket of {@link LatencyHistogram}. */
+	private final long[] counts;
+
+	/** Number of recorded requests. */
+	private final long count;
+
+	/** Highest recorded latency. */
+	private final long max;
+
+	/** Sum of the recorded latencies. */
+	private final long sum;
+
+	LatencySnapshot(long[] counts, long count, long max, long sum) {
+		this.counts = counts;
+		this.count = count;
+		this.max = max;
+		this.sum = sum;
+	}
+
+	/** Get the number of recorded requests. */
+	public long getCount() {
+		return count;
+	}
+
+	/** Get the highest latency, exact, or 0 if there is no request. */
+	public long getMax() {
+		return max;
+	}
+
+	/** Get the sum of the latencies. */
+	public long getSum() {
+		return sum;
+	}
+
+	/** Get the mean latency, or 0 if there is no request. */
+	public double getMean() {
+		return count == 0L ? 0.0 : (double) sum / count;
+	}
+
+	/**
+	 * Get the latency below which the given percentage of the requests fall.
+	 *
+	 * @param percentile The percentage, e.g., 99.9.
+	 * @return The latency, or 0 if there is no request.
+	 * @throws IllegalArgumentException If percentile is not in [0, 100].
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (!(percentile >= 0.0 && percentile <= 100.0)) {
+			throw new IllegalArgumentException("percentile must be in [0, 100]");
+		}
+		return valueAtPercentile(counts, count, max, percentile);
+	}
+
+	/**
+	 * Get a percentile from the merged counts of a {@link LatencyHistogram},
+	 * without allocating.
+	 *
+	 * @param percentile The percentage, in [0, 100].
+	 */
+	static long valueAtPercentile(long[] counts, long count, long max, double percentile) {
+		if (count == 0L) {
+			return 0L;
+		}
+		final long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * count));
+		long seen = 0L;
+		for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(LatencyHistogram.highestValue(i), max);
+			}
+		}
+		// counts and max were read while requests were being recorded
+		return max;
+	}
+
+	/** Get the median latency. */
+	public long getP50() {
+		return getValueAtPercentile(50.0);
+	}
+
+	/** Get the 99th percentile of the latency. */
+	public long getP99() {
+		return getValueAtPercentile(99.0);
+	}
+
+	/** Get the 99.9th percentile of the latency. */
+	public long getP999() {
+		return getValueAtPercentile(99.9);
+	}
+
+	@Override
+	public String toString() {
+		return "count: " + count + ", p50 (ns): " + getP50() + ", p99 (ns): " + getP99() + ", p999 (ns): "
+				+ getP999() + ", max (ns): " + max;
+	}
+}
@@ -3,6 +3,8 @@ package org.lb;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 
 import org.lb.provider.Provider;
 
@@ -10,12 +12,65 @@ public interface LoadBalancer {
 
 	/**
 	 * Forwards the request to one provider, if possible
+	 * <p>
+	 * This is a thin adapter on top of {@link #tryGet()}.
 	 * 
 	 * @return The provider's id that executed the request, or
 	 *         {@link Optional#empty()} if the system cannot execute the request or if
 	 *         no provider is available.
 	 */
-	Optional<String> get();
+	default Optional<String> get() {
+		return Optional.ofNullable(tryGet());
+	}
+
+	/**
+	 * Forwards the request to one provider, if possible, without allocating.
+	 * 
+	 * @return The provider's id that executed the request, or null if the system
+	 *         cannot execute the request or if no provider is available.
+	 */
+	String tryGet();
+
+	/**
+	 * Forwards the request with the given key to one provider, if possible. With
+	 * a consistent hashing policy, the requests with the same key are forwarded
+	 * to the same provider as long as it is enabled, the other policies ignore
+	 * the key.
+	 * <p>
+	 * This is a thin adapter on top of {@link #tryGet(String)}.
+	 * 
+	 * @param key The request key, e.g., a user or cache key.
+	 * @return The provider's id that executed the request, or
+	 *         {@link Optional#empty()} if the system cannot execute the request or if
+	 *         no provider is available.
+	 */
+	default Optional<String> get(String key) {
+		return Optional.ofNullable(tryGet(key));
+	}
+
+	/**
+	 * Forwards the request with the given key to one provider, if possible,
+	 * without allocating.
+	 * 
+	 * @param key The request key, e.g., a user or cache key.
+	 * @return The provider's id that executed the request, or null if the system
+	 *         cannot execute the request or if no provider is available.
+	 * @throws NullPointerException If key is null.
+	 */
+	String tryGet(String key);
+
+	/**
+	 * Forwards the request to one provider, if possible, without waiting for the
+	 * provider to serve it.
+	 * <p>
+	 * The request counts as pending until the returned stage completes.
+	 * 
+	 * @return A stage completing with the provider's id that executed the
+	 *         request, or with {@link Optional#empty()} if the system cannot
+	 *         execute the request or if no provider is available. The stage
+	 *         completes exceptionally if the provider fails.
+	 */
+	CompletionStage<Optional<String>> getAsync();
 
 	/**
 	 * Registers a list of providers.
@@ -49,6 +104,52 @@ public interface LoadBalancer {
 	 */
 	boolean include(int id, boolean include);
 
+	/**
+	 * Change the weight of the provider indentified by the id, taken into
+	 * account by weighted policies from the next request.
+	 * 
+	 * @param id     the provider
+	 * @param weight the new weight, at least 1
+	 * @return true if succeeded, false otherwise.
+	 * @throws IllegalArgumentException If weight <= 0.
+	 */
+	boolean setWeight(int id, int weight);
+
+	/**
+	 * Remove the provider indentified by the id. It does not get any new request,
+	 * the requests it is serving complete normally.
+	 * 
+	 * @param id the provider to remove
+	 * @return true if succeeded, false if not registered.
+	 */
+	boolean deregister(int id);
+
+	/**
+	 * Stop sending new requests to the provider indentified by the id, then
+	 * remove it once it has served all its pending requests. The provider is
+	 * excluded at once (see {@link #include(int, boolean)}), this method does not
+	 * wait. The provider cannot be included again while being drained, and
+	 * draining it again returns the stage of the drain in progress.
+	 * 
+	 * @param id the provider to drain
+	 * @return A stage completing with true once the provider is removed, or with
+	 *         false if it is not registered.
+	 */
+	CompletionStage<Boolean> drain(int id);
+
+	/**
+	 * Drain the provider indentified by the id, see {@link #drain(int)}, but
+	 * remove it once the timeout has elapsed even if it is still serving
+	 * requests. These requests complete normally.
+	 * 
+	 * @param id      the provider to drain
+	 * @param timeout the maximum time to wait for the pending requests
+	 * @param unit    the unit of the timeout
+	 * @return A stage completing with true once the provider is removed, or with
+	 *         false if it is not registered.
+	 */
+	CompletionStage<Boolean> drain(int id, long timeout, TimeUnit unit);
+
 	/**
 	 * Statistics about served requests by each provider.
 	 * 
@@ -68,4 +169,38 @@ public interface LoadBalancer {
 	 */
 	long getLoad();
 
+	/**
+	 * Get all the counters at once, without blocking the requests being served.
+	 */
+	MetricsSnapshot snapshot();
+
+	/**
+	 * Get the latency of the requests forwarded to any provider, i.e., the time
+	 * spent in {@link Provider#get()} or until the stage of
+	 * {@link Provider#getAsync()} completes. Rejected requests are not included,
+	 * failed requests are.
+	 */
+	LatencySnapshot latency();
+
+	/**
+	 * Get the latency of the requests forwarded to each provider, as in
+	 * {@link #latency()}.
+	 * 
+	 * @return a map mapping provider IDs to their latency, for the providers which
+	 *         received at least one request.
+	 */
+	Map<Integer, LatencySnapshot> latencies();
+
+	/**
+	 * Get the counters over the last seconds, e.g., to watch the arrival and
+	 * rejection rates over the last 1, 10 or 60 seconds, as well as the number of
+	 * requests forwarded to each provider. The counters are kept in buckets of 100
+	 * ms, those of each provider in buckets of 1 s, so a window of n seconds
+	 * covers at least n - 0.1, respectively n - 1, seconds.
+	 * 
+	 * @param seconds The duration of the window, in [1, 60].
+	 * @throws IllegalArgumentException If seconds is not in [1, 60].
+	 */
+	RateSnapshot rates(int seconds);
+
 }
@@ -0,0 +1,152 @@
+package org.lb;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import org.lb.provider.Provider;
+
+/**
+ * JDK Flight Recorder events of the load balancer.
+ * <p>
+ * Creating a JFR event costs an allocation even when the event is disabled,
+ * unless the JIT removes it. The events emitted for each request are therefore
+ * guarded by a static flag, refreshed whenever a recording changes state: when
+ * no recording enables them, each call site costs a single branch on a field
+ * which only changes when recordings start or stop. The events emitted by the
+ * heartbeat and the providers are rare enough to rely on JFR only.
+ * <p>
+ * One selection event per request would flood the recordings, so it must be
+ * enabled explicitly, in a settings file or with {@link Recording#enable}. The
+ * other events are enabled by default.
+ */
+final class LoadBalancerEvents {
+
+	static final String CATEGORY = "Load Balancer";
+
+	/** Rejection reasons. */
+	static final String NOT_STARTED = "not started";
+	static final String OVERLOADED = "overloaded";
+	static final String NO_PROVIDER = "no provider";
+
+	@Name("org.lb.ProviderSelection")
+	@Label("Provider Selection")
+	@Description("A provider was selected for a request")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	@Enabled(false)
+	static final class SelectionEvent extends Event {
+
+		@Label("Policy")
+		String policy;
+
+		@Label("Provider Id")
+		int provider;
+
+		@Label("Keyed")
+		@Description("True if the request has a key")
+		boolean keyed;
+
+		@Label("Selection Time")
+		@Description("Time taken by the policy to select and acquire the provider")
+		@Timespan(Timespan.NANOSECONDS)
+		long selectionTime;
+	}
+
+	@Name("org.lb.Rejection")
+	@Label("Request Rejection")
+	@Description("A request was rejected before reaching a provider")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static final class RejectionEvent extends Event {
+
+		@Label("Reason")
+		String reason;
+
+		@Label("Enabled Providers")
+		int enabledProviders;
+	}
+
+	@Name("org.lb.HeartbeatCycle")
+	@Label("Heartbeat Cycle")
+	@Description("All the included providers were health checked")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static final class HeartbeatEvent extends Event {
+
+		@Label("Checked Providers")
+		int checkedProviders;
+
+		@Label("Timed Out Checks")
+		int timedOutChecks;
+
+		@Label("Enabled Providers")
+		@Description("Number of enabled providers once the cycle completed")
+		int enabledProviders;
+	}
+
+	/** True if a recording enables {@link SelectionEvent}. */
+	static volatile boolean selection;
+
+	/** True if a recording enables {@link RejectionEvent}. */
+	static volatile boolean rejection;
+
+	static {
+		FlightRecorder.addListener(new FlightRecorderListener() {
+			@Override
+			public void recordingStateChanged(Recording recording) {
+				refresh();
+			}
+		});
+		// a recording may have started with the JVM, before this class was loaded
+		if (FlightRecorder.isInitialized()) {
+			refresh();
+		}
+	}
+
+	private LoadBalancerEvents() {
+		// avoid instantiation
+	}
+
+	/** Load this class, so that the request threads do not have to. */
+	static void init() {
+		// nothing to do, the static initializer runs once
+	}
+
+	private static void refresh() {
+		selection = EventType.getEventType(SelectionEvent.class).isEnabled();
+		rejection = EventType.getEventType(RejectionEvent.class).isEnabled();
+	}
+
+	/** Commit a selection event. Guard the call with {@link #selection}. */
+	static void selected(ProvidersManager policy, Provider provider, boolean keyed, long selectionNanos) {
+		final SelectionEvent event = new SelectionEvent();
+		if (event.shouldCommit()) {
+			event.policy = policy.getClass().getSimpleName();
+			event.provider = provider.getId();
+			event.keyed = keyed;
+			event.selectionTime = selectionNanos;
+			event.commit();
+		}
+	}
+
+	/** Commit a rejection event. Guard the call with {@link #rejection}. */
+	static void rejected(String reason, int enabledProviders) {
+		final RejectionEvent event = new RejectionEvent();
+		if (event.shouldCommit()) {
+			event.reason = reason;
+			event.enabledProviders = enabledProviders;
+			event.commit();
+		}
+	}
+
+}
@@ -1,15 +1,24 @@
 package org.lb;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.logging.Logger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 
+import org.lb.log.LogEvent;
 import org.lb.policies.LBPolicyFactory;
 import org.lb.provider.Provider;
 
@@ -20,9 +29,53 @@ public class LoadBalancerImpl implements LoadBalancer {
 
 	private static final int HEARTBEAT_INTERVAL_SECONDS = 2;
 
-	private static Logger logger = Logger.getLogger(LoadBalancerImpl.class.getName());
+	/**
+	 * Maximum number of health checks running at the same time, unless virtual
+	 * threads are supported.
+	 */
+	static final int HEARTBEAT_PARALLELISM = 16;
+
+	/** A health check not completing within this timeout counts as failed. */
+	static final long HEARTBEAT_CHECK_TIMEOUT_MS = 1_000L;
+
+	/** How often a provider being drained is checked for pending requests. */
+	static final long DRAIN_POLL_MS = 10L;
+
+	/*
+	 * Logged asynchronously, out of the request threads. The rejections are
+	 * logged at most once per second, the others are counted.
+	 */
+	private static final LogEvent LOG_NOT_STARTED = new LogEvent(LoadBalancerImpl.class, Level.SEVERE,
+			"Load balancer not started yet. Call start() first", 1);
+
+	private static final LogEvent LOG_NO_PROVIDER = new LogEvent(LoadBalancerImpl.class, Level.WARNING,
+			"No provider found", 1);
+
+	private static final LogEvent LOG_EJECTED = new LogEvent(LoadBalancerImpl.class, Level.WARNING,
+			"Ejected provider {0,number,#}");
+
+	private static final LogEvent LOG_TIMED_OUT = new LogEvent(LoadBalancerImpl.class, Level.WARNING,
+			"{0,number,#} health checks timed out");
+
+	private static final LogEvent LOG_STARTED = new LogEvent(LoadBalancerImpl.class, Level.INFO,
+			"Load balancer started.");
 
-	/** Capacity of each provider. */
+	private static final LogEvent LOG_STOPPED = new LogEvent(LoadBalancerImpl.class, Level.WARNING,
+			"Load balancer stopped.");
+
+	private static final LogEvent LOG_DEREGISTERED = new LogEvent(LoadBalancerImpl.class, Level.INFO,
+			"Deregistered provider {0,number,#}");
+
+	private static final LogEvent LOG_DRAINING = new LogEvent(LoadBalancerImpl.class, Level.INFO,
+			"Draining provider {0,number,#}");
+
+	private static final LogEvent LOG_DRAIN_TIMED_OUT = new LogEvent(LoadBalancerImpl.class, Level.WARNING,
+			"Drain of provider {0,number,#} timed out, {1,number,#} pending requests");
+
+	/**
+	 * Capacity of each provider, i.e., the maximum number of pending requests
+	 * of each provider (unless the provider has a lower capacity).
+	 */
 	private final int maxLoad;
 
 	/** Load balancing policy */
@@ -31,11 +84,32 @@ public class LoadBalancerImpl implements LoadBalancer {
 	/** Track metrics. */
 	private Metrics metrics;
 
+	/** Ejects the providers failing too many requests. */
+	private OutlierDetector outlierDetector;
+
 	private ScheduledExecutorService heartBeatExecutorService;
 
+	/** Runs the health checks. */
+	private ExecutorService checkExecutorService;
+
+	/** The providers whose health check is running. */
+	private Set<Provider> runningChecks;
+
+	/** The drains in progress, by provider id. */
+	private Map<Integer, CompletableFuture<Boolean>> drains;
+
 	/** True if this load balancer was started, false otherwise. */
 	private AtomicBoolean started;
 
+	/**
+	 * If not null, {@link #getAsync()} serves each request by calling
+	 * {@link Provider#get()} on this executor.
+	 */
+	private Executor requestExecutor;
+
+	/** Serves the metrics while started, if not null. */
+	private volatile PrometheusExporter exporter;
+
 	/**
 	 * Create a load balancer with a maximum capacity of 10 providers.
 	 * 
@@ -47,6 +121,21 @@ public class LoadBalancerImpl implements LoadBalancer {
 	}
 
 	public LoadBalancerImpl(int maxLoad, ProvidersManager lbPolicy) {
+		this(maxLoad, lbPolicy, null);
+	}
+
+	/**
+	 * Create a load balancer for blocking providers, where {@link #getAsync()}
+	 * dispatches each request onto the executor, typically one virtual thread per
+	 * request (see {@link VirtualThreads}). The number of requests in flight is
+	 * still bounded by maxLoad for each provider.
+	 * <p>
+	 * The executor is not shut down by {@link #stop()}.
+	 * 
+	 * @param requestExecutor The executor calling {@link Provider#get()}. If null,
+	 *                        {@link Provider#getAsync()} is used instead.
+	 */
+	public LoadBalancerImpl(int maxLoad, ProvidersManager lbPolicy, Executor requestExecutor) {
 		if (maxLoad < 1) {
 			throw new IllegalArgumentException("maxJobsPerProvider must be positive");
 		}
@@ -55,13 +144,28 @@ public class LoadBalancerImpl implements LoadBalancer {
 		}
 		this.maxLoad = maxLoad;
 		this.manager = lbPolicy;
+		this.requestExecutor = requestExecutor;
 		init();
 	}
 
 	private void init() {
+		LoadBalancerEvents.init();
 		metrics = new Metrics();
+		outlierDetector = new OutlierDetector(this::eject);
 
 		heartBeatExecutorService = Executors.newSingleThreadScheduledExecutor();
+		if (VirtualThreads.isSupported()) {
+			checkExecutorService = VirtualThreads.newThreadPerTaskExecutor(HEARTBEAT_PARALLELISM);
+		} else {
+			checkExecutorService = Executors.newFixedThreadPool(HEARTBEAT_PARALLELISM, r -> {
+				// a hanging check must not prevent the JVM from exiting
+				Thread t = new Thread(r, "heartbeat-check");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		runningChecks = ConcurrentHashMap.newKeySet();
+		drains = new ConcurrentHashMap<>();
 		started = new AtomicBoolean(false);
 	}
 
@@ -75,7 +179,7 @@ public class LoadBalancerImpl implements LoadBalancer {
 	 * @throws IllegalArgumentException If maxProviders <= 0 or maxJobsPerProvider
 	 *                                  <= 0.
 	 */
-	protected LoadBalancerImpl(int maxProviders, int maxLoad) {
+	public LoadBalancerImpl(int maxProviders, int maxLoad) {
 		if (maxProviders < 1) {
 			throw new IllegalArgumentException("maxProviders must be positive");
 		}
@@ -88,59 +192,178 @@ public class LoadBalancerImpl implements LoadBalancer {
 		init();
 	}
 
-	private boolean isSystemOverloaded(long pending) {
-		// In order to reduce contention this check might be slightly off as the provider manager
-		// uses a cached value inside enabledProviders()
-		final int enabled = this.manager.enabledProviders();
-		if (pending >= enabled * this.maxLoad)  {
-			return true;
-		}
-		return false;
-	}
-
 	/**
-	 * Serve a request.
+	 * Choose the provider serving a request, rejecting the request if not
+	 * possible.
 	 * 
-	 * @throws IllegalStateException If the load balancer was not started first. See {@link #start()
-	 * @throws OverloadException If the system cannot handle the request.
+	 * @param keyed    true if the request has a key.
+	 * @param key      The hash of the request key, if any.
+	 * @param nowNanos The arrival time of the request.
+	 * @return The provider, or null if the load balancer was not started first
+	 *         (see {@link #start()}) or if the system cannot handle the request.
 	 */
-	@Override
-	public Optional<String> get() {
+	private Provider admit(boolean keyed, long key, long nowNanos) {
 		if (isStarted() == false) {
-			this.metrics.reject();
-			logger.severe("Load balancer not started yet. Call start() first");
+			this.metrics.notStarted(nowNanos);
+			if (LoadBalancerEvents.rejection) {
+				LoadBalancerEvents.rejected(LoadBalancerEvents.NOT_STARTED, this.manager.enabledProviders());
+			}
+			LOG_NOT_STARTED.log();
 //			throw new IllegalStateException();
-			return Optional.empty();
+			return null;
 		}
 
-		final long curPending = this.metrics.getPending();
-		if (isSystemOverloaded(curPending)) {
-			// step 8, page 9
-			this.metrics.reject();
-//			throw new OverloadException("System overloaded, pending requests: " + curPending);
-			return Optional.empty();
-		}
-		// The load balancing policy tries to get a provider.
+		// The load balancing policy tries to get a provider which is not saturated.
 		// Deal with scenario when some providers are disabled
-		Optional<Provider> provider = this.manager.getProvider();
-		if (provider.isEmpty()) {
-			// step 8, page 9: deal with scenario where the hearbeat removes all nodes after
-			// the check above
-			this.metrics.reject();
-			logger.warning("No provider found");
+		final Provider provider = keyed ? this.manager.acquireProvider(key, this.maxLoad)
+				: this.manager.acquireProvider(this.maxLoad);
+		if (provider == null) {
+			final int enabled = this.manager.enabledProviders();
+			if (enabled > 0) {
+				// step 8, page 9: all the enabled providers are saturated
+				this.metrics.overloaded(nowNanos);
+				if (LoadBalancerEvents.rejection) {
+					LoadBalancerEvents.rejected(LoadBalancerEvents.OVERLOADED, enabled);
+				}
+				return null;
+			}
+			// step 8, page 9: deal with scenario where the hearbeat removes all nodes
+			this.metrics.noProvider(nowNanos);
+			if (LoadBalancerEvents.rejection) {
+				LoadBalancerEvents.rejected(LoadBalancerEvents.NO_PROVIDER, 0);
+			}
+			LOG_NO_PROVIDER.log();
 //			throw new OverloadException("System overloaded, no provider available.");
-			return Optional.empty();
+			return null;
 		}
 
-		// increment # of jobs in the system, handle the request, and decrese # of jobs
-		// in the system
+		// increment # of jobs in the system
 		this.metrics.increasePending();
-		String result = provider.get().get();
-		// request succeeded
-		this.metrics.success();
+		this.metrics.selected(provider, nowNanos);
+		if (LoadBalancerEvents.selection) {
+			LoadBalancerEvents.selected(this.manager, provider, keyed, System.nanoTime() - nowNanos);
+		}
+		return provider;
+	}
+
+	/**
+	 * Decrease # of jobs in the system once the provider has handled the request.
+	 * 
+	 * @param startNanos The time the provider was called.
+	 * @param endNanos   The time the provider completed the request.
+	 */
+	private void release(Provider provider, boolean success, long startNanos, long endNanos) {
+		final long latencyNanos = endNanos - startNanos;
+		this.manager.releaseProvider(provider, latencyNanos);
+		if (success) {
+			provider.getCircuitBreaker().onSuccess();
+			this.metrics.success(endNanos);
+		} else {
+			if (provider.getCircuitBreaker().onFailure()) {
+				// too few requests reach a provider down for the outlier detector
+				eject(provider);
+			}
+			this.metrics.reject(endNanos);
+		}
 		this.metrics.decreasePending();
-		// return result
-		return Optional.of(result);
+		this.metrics.latency(provider, latencyNanos);
+		this.outlierDetector.record(provider, success, latencyNanos);
+	}
+
+	/**
+	 * Stop forwarding requests to a provider failing too many of them. Called by
+	 * the request threads, so the provider is only removed from the enabled
+	 * providers: the heartbeat disables it at its next cycle, then enables it
+	 * again once it passes the health checks.
+	 */
+	private void eject(Provider provider) {
+		if (this.manager.eject(provider)) {
+			LOG_EJECTED.log(provider.getId());
+		}
+	}
+
+	/**
+	 * Serve a request.
+	 * 
+	 * @return The provider's id, or null if the load balancer was not started
+	 *         first (see {@link #start()}) or if the system cannot handle the
+	 *         request.
+	 * @throws RuntimeException If the provider fails. The request is counted as
+	 *                          rejected.
+	 */
+	@Override
+	public String tryGet() {
+		final long now = System.nanoTime();
+		return serve(admit(false, 0L, now), now);
+	}
+
+	/**
+	 * Serve a request with a key. The hash code of the key is cached by the
+	 * string, so routing does not allocate.
+	 * 
+	 * @see #tryGet()
+	 */
+	@Override
+	public String tryGet(String key) {
+		if (key == null) {
+			throw new NullPointerException("Null key");
+		}
+		final long now = System.nanoTime();
+		return serve(admit(true, key.hashCode(), now), now);
+	}
+
+	/**
+	 * Forward the request to the admitted provider.
+	 * 
+	 * @param provider The provider, or null if the request was rejected.
+	 * @param start    The arrival time of the request. The latency includes the
+	 *                 admission, which only takes a few tens of nanoseconds, so
+	 *                 that each request reads the clock twice only.
+	 */
+	private String serve(Provider provider, long start) {
+		if (provider == null) {
+			return null;
+		}
+
+		// handle the request
+		boolean success = false;
+		try {
+			String result = provider.get();
+			// request succeeded
+			success = true;
+			// return result
+			return result;
+		} finally {
+			release(provider, success, start, System.nanoTime());
+		}
+	}
+
+	/**
+	 * Serve a request asynchronously. The provider's permit is released when the
+	 * request completes, not when this method returns. A request whose stage
+	 * completes exceptionally is counted as rejected.
+	 */
+	@Override
+	public CompletionStage<Optional<String>> getAsync() {
+		final long start = System.nanoTime();
+		final Provider provider = admit(false, 0L, start);
+		if (provider == null) {
+			return CompletableFuture.completedFuture(Optional.empty());
+		}
+
+		CompletionStage<String> stage;
+		try {
+			if (this.requestExecutor == null) {
+				stage = provider.getAsync();
+			} else {
+				// blocking provider, serve the request on its own thread
+				stage = CompletableFuture.supplyAsync(provider::get, this.requestExecutor);
+			}
+		} catch (RuntimeException e) {
+			stage = CompletableFuture.failedFuture(e);
+		}
+		return stage.whenComplete((result, error) -> release(provider, error == null, start, System.nanoTime()))
+				.thenApply(Optional::ofNullable);
 	}
 
 	/**
@@ -163,16 +386,61 @@ public class LoadBalancerImpl implements LoadBalancer {
 		int counter = 0;
 		for (Provider provider : providers) {
 			if (this.manager.register(provider)) {
+				this.metrics.add(provider);
+				this.outlierDetector.add(provider);
 				counter++;
 			}
 		}
 		return counter;
 	}
 
-	void setEnabledProviders(ArrayList<Provider> enabledProviders) {
+	void setEnabledProviders(List<Provider> enabledProviders) {
 		this.manager.setEnabledProviders(enabledProviders);
 	}
 
+	boolean updateEnabledProviders(List<Provider> enable, List<Provider> disable) {
+		return this.manager.updateEnabledProviders(enable, disable, true);
+	}
+
+	boolean isEnabled(Provider provider) {
+		return this.manager.isEnabled(provider);
+	}
+
+	/** See {@link ProvidersManager#takeEjected(Provider)}. */
+	boolean takeEjected(Provider provider) {
+		return this.manager.takeEjected(provider);
+	}
+
+	Executor getCheckExecutor() {
+		return this.checkExecutorService;
+	}
+
+	Set<Provider> getRunningChecks() {
+		return this.runningChecks;
+	}
+
+	void heartbeatCompleted(long durationNanos, int timedOutChecks) {
+		this.metrics.heartbeat(durationNanos, timedOutChecks);
+		if (timedOutChecks > 0) {
+			LOG_TIMED_OUT.log(timedOutChecks);
+		}
+	}
+
+	int enabledProviders() {
+		return this.manager.enabledProviders();
+	}
+
+	Metrics metrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Call the action for each registered provider, without copying.
+	 */
+	void forEachProvider(Consumer<? super Provider> action) {
+		this.manager.forEachRegisteredProvider(action);
+	}
+
 	/**
 	 * Get a shallow copy of the registered providers.
 	 * <p>
@@ -184,11 +452,34 @@ public class LoadBalancerImpl implements LoadBalancer {
 		return this.manager.getRegisteredProviders();
 	}
 
+	/**
+	 * Serve the metrics in the Prometheus text format at
+	 * <code>http://address/metrics</code> while this load balancer is started.
+	 * The address is bound at once, the metrics are served from {@link #start()}
+	 * until {@link #stop()}.
+	 * 
+	 * @param address The address to bind, port 0 for any free port.
+	 * @return The bound address.
+	 * @throws IOException           If the address cannot be bound.
+	 * @throws IllegalStateException If this load balancer was already started, or
+	 *                               its metrics already exported.
+	 */
+	public synchronized InetSocketAddress exportMetrics(InetSocketAddress address) throws IOException {
+		if (isStarted() || this.exporter != null) {
+			throw new IllegalStateException("Metrics must be exported once, before start()");
+		}
+		this.exporter = new PrometheusExporter(this, this.metrics, address);
+		return this.exporter.getAddress();
+	}
+
 	public void start() {
 		// Steps 6 and 7
 		if (this.started.compareAndSet(false, true)) {
 			this.heartBeatExecutorService.scheduleWithFixedDelay(new HeartBeatChecker(this), 0L,
 					HEARTBEAT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+			if (this.exporter != null) {
+				this.exporter.start();
+			}
 
 //			Runtime.getRuntime().addShutdownHook(new Thread() {
 //				@Override
@@ -198,15 +489,21 @@ public class LoadBalancerImpl implements LoadBalancer {
 //				}
 //			});
 
-			logger.info("Load balancer started.");
+			LOG_STARTED.log();
 		}
 	}
 
 	public void stop() {
 		if (this.started.compareAndSet(true, false)) {
 			this.heartBeatExecutorService.shutdown();
+			this.checkExecutorService.shutdown();
+			if (this.exporter != null) {
+				this.exporter.stop();
+			}
 
-			logger.warning("Load balancer stopped.");
+			LOG_STOPPED.log();
+			// publish the messages of the requests served until now
+			LogEvent.flush();
 		}
 	}
 
@@ -215,6 +512,85 @@ public class LoadBalancerImpl implements LoadBalancer {
 		return this.manager.include(id, include);
 	}
 
+	@Override
+	public boolean deregister(int id) {
+		final Provider provider = this.manager.deregister(id);
+		if (provider == null) {
+			return false;
+		}
+		this.outlierDetector.remove(provider);
+		this.metrics.remove(provider);
+		LOG_DEREGISTERED.log(id);
+		return true;
+	}
+
+	@Override
+	public CompletionStage<Boolean> drain(int id) {
+		return drain(id, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Drain a provider. The provider is removed from the enabled providers at
+	 * once, then its pending requests are polled every {@value #DRAIN_POLL_MS} ms
+	 * without holding any thread, whether this load balancer is started or not.
+	 * A request which chose the provider just before it was excluded may still be
+	 * forwarded to it, and completes normally.
+	 */
+	@Override
+	public CompletionStage<Boolean> drain(int id, long timeout, TimeUnit unit) {
+		final CompletableFuture<Boolean> drained = new CompletableFuture<>();
+		final CompletableFuture<Boolean> inProgress = this.drains.putIfAbsent(id, drained);
+		if (inProgress != null) {
+			return inProgress;
+		}
+		final Provider provider = this.manager.drain(id);
+		if (provider == null) {
+			this.drains.remove(id, drained);
+			drained.complete(Boolean.FALSE);
+			return drained;
+		}
+		LOG_DRAINING.log(id);
+		pollDrained(id, provider, System.nanoTime(), unit.toNanos(timeout), drained);
+		return drained;
+	}
+
+	private void pollDrained(int id, Provider provider, long startNanos, long timeoutNanos,
+			CompletableFuture<Boolean> drained) {
+		CompletableFuture.delayedExecutor(DRAIN_POLL_MS, TimeUnit.MILLISECONDS).execute(() -> {
+			final int pending = provider.getPending();
+			if (pending == 0 || System.nanoTime() - startNanos >= timeoutNanos) {
+				if (pending > 0) {
+					LOG_DRAIN_TIMED_OUT.log(id, pending);
+				}
+				final boolean removed = deregister(id);
+				this.drains.remove(id, drained);
+				drained.complete(removed);
+			} else {
+				pollDrained(id, provider, startNanos, timeoutNanos, drained);
+			}
+		});
+	}
+
+	@Override
+	public boolean setWeight(int id, int weight) {
+		return this.manager.setWeight(id, weight);
+	}
+
+	/**
+	 * Consider the requests taking longer than the threshold as failed, so that a
+	 * slow provider gets ejected like a failing one. Disabled by default.
+	 * 
+	 * @param threshold The maximum latency of a successful request.
+	 * @param unit      The unit of the threshold.
+	 * @throws IllegalArgumentException If threshold <= 0.
+	 */
+	public void setSlowCallThreshold(long threshold, TimeUnit unit) {
+		if (threshold < 1L) {
+			throw new IllegalArgumentException("threshold must be positive");
+		}
+		this.outlierDetector.setSlowCallNanos(unit.toNanos(threshold));
+	}
+
 	@Override
 	public Map<Integer, Long> stats() {
 		return this.manager.statistics();
@@ -235,6 +611,26 @@ public class LoadBalancerImpl implements LoadBalancer {
 		return this.metrics.getSuccess();
 	}
 
+	@Override
+	public MetricsSnapshot snapshot() {
+		return this.metrics.snapshot();
+	}
+
+	@Override
+	public LatencySnapshot latency() {
+		return this.metrics.latency();
+	}
+
+	@Override
+	public Map<Integer, LatencySnapshot> latencies() {
+		return this.metrics.providerLatency();
+	}
+
+	@Override
+	public RateSnapshot rates(int seconds) {
+		return this.metrics.rates(seconds);
+	}
+
 	@Override
 	public boolean isStarted() {
 		return this.started.get();
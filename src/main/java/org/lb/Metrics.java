@@ -1,36 +1,213 @@
 package org.lb;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+import org.lb.provider.Provider;
+
+/**
+ * Request counters.
+ * <p>
+ * Served and rejected requests are counted with {@link LongAdder}s, whose cells
+ * are striped across threads and padded against false sharing, so that
+ * concurrent requests do not contend on the same cache line. Rejected requests
+ * are counted by reason: failed by their provider, all providers saturated, no
+ * provider enabled, or load balancer not started. The number of arrivals is not
+ * counted separately, it is always the sum of served and rejected requests.
+ * <p>
+ * The same counters are kept over the last minute in a {@link RollingWindow},
+ * to get the rates over the last 1, 10 or 60 seconds. The windows of the
+ * providers have coarser buckets, see {@link #PROVIDER_STRIPES}.
+ * <p>
+ * The number of pending requests is used by the admission check and therefore
+ * must be exact: it is kept in an atomic counter padded to its own cache
+ * line.
+ * <p>
+ * The latency of the requests is recorded in a {@link LatencyHistogram} for
+ * all the providers, and in a smaller one for each provider, next to the
+ * rolling count of the requests it was selected for. The metrics of a provider
+ * are created when it is registered and forgotten when it is deregistered: the
+ * requests still in flight at that time are only counted in the totals.
+ */
 class Metrics {
 
-	/** Number of jobs in the system. */
-	private AtomicLong pending;
+	/**
+	 * Number of stripes of the histogram and window of each provider. The
+	 * requests are spread over the providers, so they contend less on the metrics
+	 * of one provider than on the totals, and there may be thousands of
+	 * providers: a provider takes about 6 KB instead of 60 KB with 4 stripes and
+	 * buckets of 100 ms.
+	 */
+	private static final int PROVIDER_STRIPES = 1;
+
+	/** Duration of the buckets of the window of each provider. */
+	private static final long PROVIDER_BUCKET_MILLIS = 1_000L;
+
+	/** Counters of the rolling window. */
+	private static final int SUCCESS = 0;
+	private static final int FAILED = 1;
+	private static final int OVERLOADED = 2;
+	private static final int NO_PROVIDER = 3;
+	private static final int NOT_STARTED = 4;
+	private static final int COUNTERS = 5;
+
+	/** Padding before the value of {@link PaddedAtomicLong}. */
+	@SuppressWarnings("unused")
+	private static class LhsPadding {
+		private long p1, p2, p3, p4, p5, p6, p7;
+	}
+
+	/** The value of {@link PaddedAtomicLong}. */
+	private static class Value extends LhsPadding {
+		protected volatile long value;
+	}
+
+	/**
+	 * Atomic counter that does not share its cache line with other objects. The
+	 * fields of a superclass are laid out before those of its subclasses, so the
+	 * value is padded on both sides, whatever precedes or follows the object.
+	 */
+	@SuppressWarnings("unused")
+	private static final class PaddedAtomicLong extends Value {
 
-	/** Number of received requests. */
-	private AtomicLong arrivals;
+		private static final VarHandle VALUE;
+
+		static {
+			try {
+				VALUE = MethodHandles.lookup().findVarHandle(Value.class, "value", long.class);
+			} catch (ReflectiveOperationException e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+
+		private long p9, p10, p11, p12, p13, p14, p15;
+
+		long get() {
+			return this.value;
+		}
+
+		long incrementAndGet() {
+			return (long) VALUE.getAndAdd(this, 1L) + 1L;
+		}
+
+		long decrementAndGet() {
+			return (long) VALUE.getAndAdd(this, -1L) - 1L;
+		}
+	}
+
+	/** Metrics of a provider. */
+	private static final class ProviderMetrics {
+
+		private final LatencyHistogram latency = new LatencyHistogram(PROVIDER_STRIPES);
+
+		/** Number of requests forwarded to the provider. */
+		private final RollingWindow selections = new RollingWindow(1, PROVIDER_STRIPES, PROVIDER_BUCKET_MILLIS);
+	}
+
+	/** Number of jobs in the system. */
+	private final PaddedAtomicLong pending;
 
 	/** Number of served requests. */
-	private AtomicLong success;
+	private final LongAdder success;
+
+	/** Number of requests failed by their provider. */
+	private final LongAdder failed;
+
+	/** Number of requests rejected because all the providers were saturated. */
+	private final LongAdder overloaded;
+
+	/** Number of requests rejected because no provider was enabled. */
+	private final LongAdder noProvider;
+
+	/** Number of requests rejected because the load balancer was not started. */
+	private final LongAdder notStarted;
+
+	/** The request counters over the last minute. */
+	private final RollingWindow window;
+
+	/** Number of completed heartbeat cycles. */
+	private final AtomicLong heartbeats;
+
+	/** Duration of the last heartbeat cycle, in nanoseconds. */
+	private volatile long lastHeartbeatNanos;
+
+	/** Duration of the longest heartbeat cycle, in nanoseconds. */
+	private final AtomicLong maxHeartbeatNanos;
+
+	/** Number of health checks that did not complete in time. */
+	private final AtomicLong timedOutChecks;
+
+	/** Latency of the requests served by any provider. */
+	private final LatencyHistogram latency;
 
-	/** Number of rejected requests. */
-	private AtomicLong rejected;
+	private final Map<Provider, ProviderMetrics> providers;
 
 	public Metrics() {
-		pending = new AtomicLong();
-		arrivals = new AtomicLong();
-		success = new AtomicLong();
-		rejected = new AtomicLong();
+		pending = new PaddedAtomicLong();
+		success = new LongAdder();
+		failed = new LongAdder();
+		overloaded = new LongAdder();
+		noProvider = new LongAdder();
+		notStarted = new LongAdder();
+		window = new RollingWindow(COUNTERS, Runtime.getRuntime().availableProcessors());
+		heartbeats = new AtomicLong();
+		maxHeartbeatNanos = new AtomicLong();
+		timedOutChecks = new AtomicLong();
+		latency = new LatencyHistogram();
+		providers = new ConcurrentHashMap<>();
 	}
 
+	/** Count a request failed by its provider. */
 	void reject() {
-		this.arrivals.incrementAndGet();
-		this.rejected.incrementAndGet();
+		reject(System.nanoTime());
 	}
 
+	/**
+	 * Count a request failed by its provider.
+	 * 
+	 * @param nowNanos The current time, see {@link System#nanoTime()}.
+	 */
+	void reject(long nowNanos) {
+		this.failed.increment();
+		this.window.increment(FAILED, nowNanos);
+	}
+
+	/** Count a request rejected because all the providers were saturated. */
+	void overloaded(long nowNanos) {
+		this.overloaded.increment();
+		this.window.increment(OVERLOADED, nowNanos);
+	}
+
+	/** Count a request rejected because no provider was enabled. */
+	void noProvider(long nowNanos) {
+		this.noProvider.increment();
+		this.window.increment(NO_PROVIDER, nowNanos);
+	}
+
+	/** Count a request rejected because the load balancer was not started. */
+	void notStarted(long nowNanos) {
+		this.notStarted.increment();
+		this.window.increment(NOT_STARTED, nowNanos);
+	}
+
+	/** Count a served request. */
 	void success() {
-		this.arrivals.incrementAndGet();
-		this.success.incrementAndGet();
+		success(System.nanoTime());
+	}
+
+	/**
+	 * Count a served request.
+	 * 
+	 * @param nowNanos The current time, see {@link System#nanoTime()}.
+	 */
+	void success(long nowNanos) {
+		this.success.increment();
+		this.window.increment(SUCCESS, nowNanos);
 	}
 
 	void increasePending() {
@@ -43,20 +220,146 @@ class Metrics {
 		}
 	}
 
+	/** Create the metrics of a registered provider. */
+	void add(Provider provider) {
+		this.providers.putIfAbsent(provider, new ProviderMetrics());
+	}
+
+	/**
+	 * Count a request forwarded to a provider. Does not lock nor allocate.
+	 * Ignored if the provider is not registered.
+	 * 
+	 * @param nowNanos The current time, see {@link System#nanoTime()}.
+	 */
+	void selected(Provider provider, long nowNanos) {
+		final ProviderMetrics metrics = this.providers.get(provider);
+		if (metrics != null) {
+			metrics.selections.increment(0, nowNanos);
+		}
+	}
+
+	/**
+	 * Record the latency of a request, whether it succeeded or not. Does not lock
+	 * nor allocate. Only recorded in total if the provider is not registered any
+	 * more.
+	 */
+	void latency(Provider provider, long latencyNanos) {
+		this.latency.record(latencyNanos);
+		final ProviderMetrics metrics = this.providers.get(provider);
+		if (metrics != null) {
+			metrics.latency.record(latencyNanos);
+		}
+	}
+
+	/**
+	 * Forget the latency and the selections of a deregistered provider. The
+	 * requests it is still serving are not recorded per provider.
+	 */
+	void remove(Provider provider) {
+		this.providers.remove(provider);
+	}
+	/**
+	 * Record a heartbeat cycle.
+	 * 
+	 * @param durationNanos The duration of the cycle.
+	 * @param timedOut      The number of health checks that timed out.
+	 */
+	void heartbeat(long durationNanos, int timedOut) {
+		this.lastHeartbeatNanos = durationNanos;
+		this.maxHeartbeatNanos.accumulateAndGet(durationNanos, Math::max);
+		this.timedOutChecks.addAndGet(timedOut);
+		this.heartbeats.incrementAndGet();
+	}
+
 	public long getPending() {
 		return pending.get();
 	}
 
 	public long getArrivals() {
-		return arrivals.get();
+		return getSuccess() + getRejected();
 	}
 
 	public long getSuccess() {
-		return success.get();
+		return success.sum();
 	}
 
 	public long getRejected() {
-		return rejected.get();
+		return failed.sum() + overloaded.sum() + noProvider.sum() + notStarted.sum();
+	}
+
+	/** Get the latency of the requests served by any provider. */
+	public LatencySnapshot latency() {
+		return this.latency.snapshot();
+	}
+
+	/** Get the histogram of the latency of all the requests. */
+	LatencyHistogram latencyHistogram() {
+		return this.latency;
+	}
+
+	/**
+	 * Get the histogram of the latency of the requests served by a provider.
+	 * 
+	 * @return The histogram, or null if the provider is not registered.
+	 */
+	LatencyHistogram latencyHistogram(Provider provider) {
+		final ProviderMetrics metrics = this.providers.get(provider);
+		return metrics == null ? null : metrics.latency;
+	}
+
+	/**
+	 * Get the latency of the requests served by each provider, by id, for the
+	 * providers which served at least one request.
+	 */
+	public Map<Integer, LatencySnapshot> providerLatency() {
+		final Map<Integer, LatencySnapshot> result = new HashMap<>();
+		this.providers.forEach((provider, metrics) -> {
+			final LatencySnapshot snapshot = metrics.latency.snapshot();
+			if (snapshot.getCount() > 0L) {
+				result.put(provider.getId(), snapshot);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Get the counters over the last seconds.
+	 * 
+	 * @param seconds The duration of the window, in [1, 60].
+	 * @throws IllegalArgumentException If seconds is not in [1, 60].
+	 */
+	public RateSnapshot rates(int seconds) {
+		return rates(seconds, System.nanoTime());
+	}
+
+	RateSnapshot rates(int seconds, long nowNanos) {
+		final long[] sums = this.window.sum(seconds, nowNanos);
+		final Map<Integer, Long> selections = new HashMap<>();
+		this.providers.forEach((provider, metrics) -> {
+			final long count = metrics.selections.sum(seconds, nowNanos)[0];
+			if (count > 0L) {
+				selections.put(provider.getId(), count);
+			}
+		});
+		return new RateSnapshot(seconds, sums[SUCCESS], sums[FAILED], sums[OVERLOADED], sums[NO_PROVIDER],
+				sums[NOT_STARTED], selections);
+	}
+
+	/**
+	 * Get all counters at once, without blocking concurrent requests.
+	 * <p>
+	 * The counters are not frozen while being read, but within the snapshot the
+	 * number of arrivals is always the sum of served and rejected requests, and
+	 * the number of rejected requests the sum of its reasons.
+	 */
+	public MetricsSnapshot snapshot() {
+		final long s = getSuccess();
+		final long f = failed.sum();
+		final long o = overloaded.sum();
+		final long n = noProvider.sum();
+		final long ns = notStarted.sum();
+		return new MetricsSnapshot(s, f, o, n, ns, getPending(), heartbeats.get(), lastHeartbeatNanos,
+				maxHeartbeatNanos.get(), timedOutChecks.get());
 	}
 
 }
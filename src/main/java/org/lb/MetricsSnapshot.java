@@ -0,0 +1,141 @@
+package org.lb;
+
+/**
+ * Immutable view of the load balancer counters taken at a given time.
+ */
+public final class MetricsSnapshot {
+
+	/** Number of received requests. */
+	private final long arrivals;
+
+	/** Number of served requests. */
+	private final long success;
+
+	/** Number of rejected requests. */
+	private final long rejected;
+
+	/** Number of requests failed by their provider. */
+	private final long failed;
+
+	/** Number of requests rejected because all the providers were saturated. */
+	private final long overloaded;
+
+	/** Number of requests rejected because no provider was enabled. */
+	private final long noProvider;
+
+	/** Number of requests rejected because the load balancer was not started. */
+	private final long notStarted;
+
+	/** Number of jobs in the system. */
+	private final long pending;
+
+	/** Number of completed heartbeat cycles. */
+	private final long heartbeats;
+
+	/** Duration of the last heartbeat cycle, in nanoseconds. */
+	private final long lastHeartbeatNanos;
+
+	/** Duration of the longest heartbeat cycle, in nanoseconds. */
+	private final long maxHeartbeatNanos;
+
+	/** Number of health checks that did not complete in time. */
+	private final long timedOutChecks;
+
+	MetricsSnapshot(long success, long failed, long overloaded, long noProvider, long notStarted, long pending,
+			long heartbeats, long lastHeartbeatNanos, long maxHeartbeatNanos, long timedOutChecks) {
+		this.rejected = failed + overloaded + noProvider + notStarted;
+		this.arrivals = success + rejected;
+		this.success = success;
+		this.failed = failed;
+		this.overloaded = overloaded;
+		this.noProvider = noProvider;
+		this.notStarted = notStarted;
+		this.pending = pending;
+		this.heartbeats = heartbeats;
+		this.lastHeartbeatNanos = lastHeartbeatNanos;
+		this.maxHeartbeatNanos = maxHeartbeatNanos;
+		this.timedOutChecks = timedOutChecks;
+	}
+
+	/**
+	 * Get the number of received requests. This is equivalent to
+	 * {@link #getSuccess()} + {@link #getRejected()}.
+	 */
+	public long getArrivals() {
+		return arrivals;
+	}
+
+	/** Get the number of requests successfully served. */
+	public long getSuccess() {
+		return success;
+	}
+
+	/**
+	 * Get the number of rejected requests, for any reason. This is the sum of
+	 * {@link #getFailed()}, {@link #getOverloaded()}, {@link #getNoProvider()}
+	 * and {@link #getNotStarted()}.
+	 */
+	public long getRejected() {
+		return rejected;
+	}
+
+	/** Get the number of requests failed by their provider. */
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * Get the number of requests rejected because all the enabled providers were
+	 * saturated.
+	 */
+	public long getOverloaded() {
+		return overloaded;
+	}
+
+	/** Get the number of requests rejected because no provider was enabled. */
+	public long getNoProvider() {
+		return noProvider;
+	}
+
+	/**
+	 * Get the number of requests rejected because the load balancer was not
+	 * started.
+	 */
+	public long getNotStarted() {
+		return notStarted;
+	}
+
+	/** Get the number of requests being served. */
+	public long getPending() {
+		return pending;
+	}
+
+	/** Get the number of completed heartbeat cycles. */
+	public long getHeartbeats() {
+		return heartbeats;
+	}
+
+	/** Get the duration of the last heartbeat cycle, in nanoseconds. */
+	public long getLastHeartbeatNanos() {
+		return lastHeartbeatNanos;
+	}
+
+	/** Get the duration of the longest heartbeat cycle, in nanoseconds. */
+	public long getMaxHeartbeatNanos() {
+		return maxHeartbeatNanos;
+	}
+
+	/** Get the number of health checks that did not complete in time. */
+	public long getTimedOutChecks() {
+		return timedOutChecks;
+	}
+
+	@Override
+	public String toString() {
+		return "arrivals: " + arrivals + ", success: " + success + ", rejected: " + rejected + " (failed: " + failed
+				+ ", overloaded: " + overloaded + ", no provider: " + noProvider + ", not started: " + notStarted
+				+ "), pending: " + pending + ", heartbeats: " + heartbeats + ", last heartbeat (ns): "
+				+ lastHeartbeatNanos + ", max heartbeat (ns): " + maxHeartbeatNanos + ", timed out checks: "
+				+ timedOutChecks;
+	}
+}
@@ -0,0 +1,181 @@
+package org.lb;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+import org.lb.provider.Provider;
+
+/**
+ * Passive health checking: tracks the outcome of the requests served by each
+ * provider over a sliding time window, and ejects a provider as soon as too
+ * many of its requests fail.
+ * <p>
+ * A request fails if the provider throws an exception or if it takes longer
+ * than the slow call threshold. A provider is ejected when it served a minimum
+ * number of requests within the window, and the ratio of failed requests
+ * reaches the configured threshold. Ejected providers get
+ * re-enabled by the heartbeat, like the providers failing a health check.
+ * <p>
+ * Recording an outcome does not take any lock nor allocate: each window is a
+ * ring of buckets, each bucket tagged with the time slot it refers to. A stale
+ * bucket is reset by the first request falling into it; concurrent resets may
+ * lose a few samples, which is fine for detection purposes.
+ */
+class OutlierDetector {
+
+	/** Default window, one second. */
+	static final long DEFAULT_WINDOW_NANOS = 1_000_000_000L;
+
+	/** Default minimum number of requests within the window. */
+	static final int DEFAULT_MIN_REQUESTS = 20;
+
+	/** Default failure ratio triggering the ejection. */
+	static final double DEFAULT_MAX_FAILURE_RATIO = 0.5;
+
+	/** Number of buckets of each window. */
+	private static final int BUCKETS = 10;
+
+	/** Bucket layout: time slot, requests, failures. */
+	private static final int SLOT = 0;
+	private static final int REQUESTS = 1;
+	private static final int FAILURES = 2;
+	private static final int BUCKET_SIZE = 3;
+
+	/** Time slot of a bucket never used. */
+	private static final long NO_SLOT = Long.MIN_VALUE;
+
+	/** Duration of each bucket. */
+	private final long bucketNanos;
+
+	/** Minimum number of requests within the window. */
+	private final int minRequests;
+
+	/** Failure ratio triggering the ejection. */
+	private final double maxFailureRatio;
+
+	/** Requests taking longer than this are considered failed. */
+	private volatile long slowCallNanos;
+
+	/** Called when a provider must be ejected. */
+	private final Consumer<Provider> ejector;
+
+	private final Map<Provider, AtomicLongArray> windows;
+
+	/**
+	 * Create an outlier detector with the default settings, where slow requests
+	 * are not considered failures.
+	 */
+	OutlierDetector(Consumer<Provider> ejector) {
+		this(DEFAULT_WINDOW_NANOS, DEFAULT_MIN_REQUESTS, DEFAULT_MAX_FAILURE_RATIO, Long.MAX_VALUE, ejector);
+	}
+
+	/**
+	 * @param windowNanos     The duration of the sliding window.
+	 * @param minRequests     The minimum number of requests within the window
+	 *                        before a provider can be ejected.
+	 * @param maxFailureRatio The failure ratio triggering the ejection, in (0, 1].
+	 * @param slowCallNanos   Requests taking longer than this are considered
+	 *                        failed.
+	 * @param ejector         Called when a provider must be ejected.
+	 */
+	OutlierDetector(long windowNanos, int minRequests, double maxFailureRatio, long slowCallNanos,
+			Consumer<Provider> ejector) {
+		if (windowNanos < BUCKETS) {
+			throw new IllegalArgumentException("window too short");
+		}
+		if (minRequests < 1) {
+			throw new IllegalArgumentException("minRequests must be positive");
+		}
+		if (maxFailureRatio <= 0.0 || maxFailureRatio > 1.0) {
+			throw new IllegalArgumentException("maxFailureRatio must be in (0, 1]");
+		}
+		if (ejector == null) {
+			throw new NullPointerException("Null ejector");
+		}
+		this.bucketNanos = windowNanos / BUCKETS;
+		this.minRequests = minRequests;
+		this.maxFailureRatio = maxFailureRatio;
+		this.slowCallNanos = slowCallNanos;
+		this.ejector = ejector;
+		this.windows = new ConcurrentHashMap<>();
+	}
+
+	/** Track a provider, e.g., once registered. */
+	void add(Provider provider) {
+		this.windows.putIfAbsent(provider, newWindow());
+	}
+
+	private static AtomicLongArray newWindow() {
+		AtomicLongArray window = new AtomicLongArray(BUCKETS * BUCKET_SIZE);
+		for (int i = 0; i < BUCKETS; i++) {
+			window.set(i * BUCKET_SIZE + SLOT, NO_SLOT);
+		}
+		return window;
+	}
+
+	/**
+	 * Record the outcome of a request. Ignored if the provider is not tracked,
+	 * e.g., deregistered while serving the request.
+	 *
+	 * @param provider     The provider serving the request.
+	 * @param success      False if the provider failed.
+	 * @param latencyNanos The time the provider took to serve the request.
+	 */
+	void record(Provider provider, boolean success, long latencyNanos) {
+		final AtomicLongArray window = this.windows.get(provider);
+		if (window == null) {
+			return;
+		}
+		final boolean failed = success == false || latencyNanos > this.slowCallNanos;
+		final long slot = Math.floorDiv(System.nanoTime(), this.bucketNanos);
+		final int base = (int) Math.floorMod(slot, (long) BUCKETS) * BUCKET_SIZE;
+
+		final long current = window.get(base + SLOT);
+		if (current != slot && window.compareAndSet(base + SLOT, current, slot)) {
+			// stale bucket, reset it
+			window.set(base + REQUESTS, 0L);
+			window.set(base + FAILURES, 0L);
+		}
+		window.incrementAndGet(base + REQUESTS);
+		if (failed) {
+			window.incrementAndGet(base + FAILURES);
+			// only failures can trigger an ejection
+			check(provider, window, slot);
+		}
+	}
+
+	/**
+	 * Change the slow call threshold, taken into account from the next request.
+	 * 
+	 * @param slowCallNanos Requests taking longer than this are considered
+	 *                      failed, Long.MAX_VALUE to disable.
+	 */
+	void setSlowCallNanos(long slowCallNanos) {
+		this.slowCallNanos = slowCallNanos;
+	}
+
+	/** Forget a provider, e.g., once deregistered. */
+	void remove(Provider provider) {
+		this.windows.remove(provider);
+	}
+
+	private void check(Provider provider, AtomicLongArray window, long slot) {
+		long requests = 0L;
+		long failures = 0L;
+		for (int i = 0; i < BUCKETS; i++) {
+			final int base = i * BUCKET_SIZE;
+			final long bucketSlot = window.get(base + SLOT);
+			if (bucketSlot != NO_SLOT && slot - bucketSlot < BUCKETS) {
+				requests += window.get(base + REQUESTS);
+				failures += window.get(base + FAILURES);
+			}
+		}
+		if (requests >= this.minRequests && failures >= this.maxFailureRatio * requests) {
+			// start from scratch once re-enabled, unless forgotten meanwhile
+			this.windows.replace(provider, window, newWindow());
+			this.ejector.accept(provider);
+		}
+	}
+}
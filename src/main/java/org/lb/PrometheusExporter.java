@@ -0,0 +1,258 @@
+package org.lb;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import org.lb.provider.CircuitBreaker;
+import org.lb.provider.Provider;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the metrics of a load balancer in the Prometheus text format, at
+ * {@value #PATH}, with the HTTP server of the JDK.
+ * <p>
+ * Scrapes are served one at a time by a single daemon thread, so the text and
+ * the bytes of the response are rendered into buffers reused from one scrape
+ * to the next, and the histograms are merged into a reused array. Once the
+ * buffers have grown to the size of the response, a scrape allocates a
+ * constant amount of memory whatever the number of providers, mostly in the
+ * HTTP server.
+ * <p>
+ * Latencies are exported in seconds, as summaries with the 0.5, 0.99 and 0.999
+ * quantiles.
+ */
+class PrometheusExporter implements HttpHandler {
+
+	static final String PATH = "/metrics";
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+
+	private static final String[] QUANTILE_LABELS = { "0.5", "0.99", "0.999" };
+
+	private static final CircuitBreaker.State[] CIRCUIT_STATES = CircuitBreaker.State.values();
+
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+	private static Logger logger = Logger.getLogger(PrometheusExporter.class.getName());
+
+	private final LoadBalancerImpl lb;
+
+	private final Metrics metrics;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	/** The text of the response, reused. */
+	private final StringBuilder text;
+
+	/** The bytes of the response, reused, grown as needed. */
+	private byte[] bytes;
+
+	/** The merged counts of a histogram, reused. */
+	private final long[] counts;
+
+	/**
+	 * Create an exporter bound to the address, not serving yet.
+	 *
+	 * @param address The address to bind, port 0 for any free port.
+	 * @throws IOException If the address cannot be bound.
+	 */
+	PrometheusExporter(LoadBalancerImpl lb, Metrics metrics, InetSocketAddress address) throws IOException {
+		this.lb = lb;
+		this.metrics = metrics;
+		this.text = new StringBuilder(4096);
+		this.bytes = new byte[4096];
+		this.counts = new long[LatencyHistogram.BUCKETS];
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "metrics-exporter");
+			t.setDaemon(true);
+			return t;
+		});
+		this.server = HttpServer.create(address, 0);
+		this.server.createContext(PATH, this);
+		this.server.setExecutor(this.executor);
+	}
+
+	/** Get the bound address. */
+	InetSocketAddress getAddress() {
+		return this.server.getAddress();
+	}
+
+	void start() {
+		this.server.start();
+		logger.info("Serving metrics at http://" + getAddress().getHostString() + ":" + getAddress().getPort()
+				+ PATH);
+	}
+
+	void stop() {
+		this.server.stop(0);
+		this.executor.shutdown();
+	}
+
+	@Override
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			final String method = exchange.getRequestMethod();
+			final boolean head = "HEAD".equals(method);
+			if (head == false && "GET".equals(method) == false) {
+				exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+				exchange.sendResponseHeaders(405, -1L);
+				return;
+			}
+			final int length = encode(render());
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			if (head) {
+				exchange.sendResponseHeaders(200, -1L);
+				return;
+			}
+			exchange.sendResponseHeaders(200, length);
+			try (OutputStream body = exchange.getResponseBody()) {
+				body.write(this.bytes, 0, length);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/** Copy the text into the byte buffer, all the characters are ASCII. */
+	private int encode(CharSequence text) {
+		final int length = text.length();
+		if (this.bytes.length < length) {
+			this.bytes = new byte[Math.max(length, this.bytes.length * 2)];
+		}
+		for (int i = 0; i < length; i++) {
+			this.bytes[i] = (byte) text.charAt(i);
+		}
+		return length;
+	}
+
+	/**
+	 * Render the metrics into the reused text buffer. Must only be called by one
+	 * thread at a time.
+	 */
+	CharSequence render() {
+		final StringBuilder sb = this.text;
+		sb.setLength(0);
+		final MetricsSnapshot snapshot = this.lb.snapshot();
+
+		header(sb, "lb_requests_total", "counter", "Requests received, by outcome.");
+		requests(sb, "success", snapshot.getSuccess());
+		requests(sb, "failed", snapshot.getFailed());
+		requests(sb, "overloaded", snapshot.getOverloaded());
+		requests(sb, "no_provider", snapshot.getNoProvider());
+		requests(sb, "not_started", snapshot.getNotStarted());
+
+		header(sb, "lb_pending_requests", "gauge", "Requests being served.");
+		sb.append("lb_pending_requests ").append(snapshot.getPending()).append('\n');
+
+		header(sb, "lb_up", "gauge", "1 if the load balancer is started.");
+		sb.append("lb_up ").append(this.lb.isStarted() ? 1 : 0).append('\n');
+
+		header(sb, "lb_heartbeats_total", "counter", "Completed heartbeat cycles.");
+		sb.append("lb_heartbeats_total ").append(snapshot.getHeartbeats()).append('\n');
+		header(sb, "lb_heartbeat_last_duration_seconds", "gauge", "Duration of the last heartbeat cycle.");
+		seconds(sb.append("lb_heartbeat_last_duration_seconds "), snapshot.getLastHeartbeatNanos()).append('\n');
+		header(sb, "lb_heartbeat_max_duration_seconds", "gauge", "Duration of the longest heartbeat cycle.");
+		seconds(sb.append("lb_heartbeat_max_duration_seconds "), snapshot.getMaxHeartbeatNanos()).append('\n');
+		header(sb, "lb_health_check_timeouts_total", "counter", "Health checks not completed in time.");
+		sb.append("lb_health_check_timeouts_total ").append(snapshot.getTimedOutChecks()).append('\n');
+
+		header(sb, "lb_request_latency_seconds", "summary", "Time taken by the providers to serve the requests.");
+		latency(sb, "lb_request_latency_seconds", null, this.metrics.latencyHistogram());
+
+		header(sb, "lb_provider_requests_total", "counter", "Requests served by each provider.");
+		this.lb.forEachProvider(x -> sample(sb, "lb_provider_requests_total", x, x.getRequests()));
+		header(sb, "lb_provider_pending_requests", "gauge", "Requests being served by each provider.");
+		this.lb.forEachProvider(x -> sample(sb, "lb_provider_pending_requests", x, x.getPending()));
+		header(sb, "lb_provider_weight", "gauge", "Weight of each provider.");
+		this.lb.forEachProvider(x -> sample(sb, "lb_provider_weight", x, x.getWeight()));
+		header(sb, "lb_provider_included", "gauge", "1 if the provider is included.");
+		this.lb.forEachProvider(x -> sample(sb, "lb_provider_included", x, x.isIncluded() ? 1 : 0));
+		header(sb, "lb_provider_enabled", "gauge", "1 if the provider receives requests.");
+		this.lb.forEachProvider(x -> sample(sb, "lb_provider_enabled", x, this.lb.isEnabled(x) ? 1 : 0));
+		header(sb, "lb_provider_circuit_state", "gauge", "State of the circuit breaker of each provider.");
+		this.lb.forEachProvider(x -> {
+			final CircuitBreaker.State state = x.getCircuitBreaker().getState();
+			for (CircuitBreaker.State s : CIRCUIT_STATES) {
+				sb.append("lb_provider_circuit_state{provider=\"").append(x.getId()).append("\",state=\"")
+						.append(s).append("\"} ").append(s == state ? 1 : 0).append('\n');
+			}
+		});
+
+		header(sb, "lb_provider_latency_seconds", "summary", "Time taken by each provider to serve the requests.");
+		this.lb.forEachProvider(x -> {
+			final LatencyHistogram histogram = this.metrics.latencyHistogram(x);
+			if (histogram != null) {
+				latency(sb, "lb_provider_latency_seconds", x, histogram);
+			}
+		});
+		return sb;
+	}
+
+	private static void header(StringBuilder sb, String name, String type, String help) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void requests(StringBuilder sb, String outcome, long value) {
+		sb.append("lb_requests_total{outcome=\"").append(outcome).append("\"} ").append(value).append('\n');
+	}
+
+	private static void sample(StringBuilder sb, String name, Provider provider, long value) {
+		sb.append(name).append("{provider=\"").append(provider.getId()).append("\"} ").append(value).append('\n');
+	}
+
+	/**
+	 * Render a summary.
+	 *
+	 * @param provider The provider, null for all the providers.
+	 */
+	private void latency(StringBuilder sb, String name, Provider provider, LatencyHistogram histogram) {
+		final long count = histogram.merge(this.counts);
+		final long max = histogram.getMax();
+		for (int i = 0; i < QUANTILES.length; i++) {
+			final long value = LatencySnapshot.valueAtPercentile(this.counts, count, max, QUANTILES[i] * 100.0);
+			sb.append(name).append('{');
+			if (provider != null) {
+				sb.append("provider=\"").append(provider.getId()).append("\",");
+			}
+			seconds(sb.append("quantile=\"").append(QUANTILE_LABELS[i]).append("\"} "), value).append('\n');
+		}
+		seconds(labels(sb.append(name).append("_sum"), provider), histogram.getSum()).append('\n');
+		labels(sb.append(name).append("_count"), provider).append(count).append('\n');
+	}
+
+	/**
+	 * Append a duration in seconds, with all the digits of the nanoseconds.
+	 * Unlike {@link StringBuilder#append(double)}, this does not allocate.
+	 */
+	static StringBuilder seconds(StringBuilder sb, long nanos) {
+		if (nanos < 0L) {
+			sb.append('-');
+			nanos = -nanos;
+		}
+		sb.append(nanos / NANOS_PER_SECOND).append('.');
+		final long fraction = nanos % NANOS_PER_SECOND;
+		for (long digit = NANOS_PER_SECOND / 10L; digit > 0L; digit /= 10L) {
+			sb.append((char) ('0' + fraction / digit % 10L));
+		}
+		return sb;
+	}
+
+	private static StringBuilder labels(StringBuilder sb, Provider provider) {
+		if (provider != null) {
+			sb.append("{provider=\"").append(provider.getId()).append("\"}");
+		}
+		return sb.append(' ');
+	}
+}
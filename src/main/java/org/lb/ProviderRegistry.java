@@ -0,0 +1,221 @@
+package org.lb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import org.lb.provider.Provider;
+
+/**
+ * Registered providers, indexed by id.
+ * <p>
+ * The ids are kept in an open-addressing hash table of primitive slots with
+ * linear probing, next to the providers. The providers are also kept in a
+ * dense array, so that they can be iterated without copying, and removed in
+ * O(1) by moving the last one into the hole.
+ * <p>
+ * Readers never lock: they only read the tables through volatile reads.
+ * Writers are serialized by the caller and never modify a published table in a
+ * way readers could misinterpret: a slot gets its provider before its id, and a
+ * table is replaced, not modified, when it grows. Iterating is weakly
+ * consistent: a provider removed or moved concurrently may be missed.
+ */
+class ProviderRegistry {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** Slot never used. */
+	private static final long EMPTY = 0L;
+
+	/** Slot of a removed id, probing goes on. */
+	private static final long DELETED = 1L << 33;
+
+	/** Marks the slots holding an id. */
+	private static final long USED = 1L << 32;
+
+	/** Hash table: the id of each slot and its provider. */
+	private static final class Table {
+
+		private final AtomicLongArray keys;
+
+		private final AtomicReferenceArray<Provider> values;
+
+		/** Position in {@link ProviderRegistry#dense}, only read by writers. */
+		private final int[] positions;
+
+		private final int mask;
+
+		Table(int capacity) {
+			this.keys = new AtomicLongArray(capacity);
+			this.values = new AtomicReferenceArray<>(capacity);
+			this.positions = new int[capacity];
+			this.mask = capacity - 1;
+		}
+	}
+
+	private volatile Table table;
+
+	/** Used and deleted slots of the table. */
+	private int occupied;
+
+	/** The providers, without holes up to size. */
+	private volatile AtomicReferenceArray<Provider> dense;
+
+	private volatile int size;
+
+	ProviderRegistry() {
+		table = new Table(INITIAL_CAPACITY);
+		dense = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+	}
+
+	private static long key(int id) {
+		return USED | (id & 0xFFFFFFFFL);
+	}
+
+	private static int hash(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/** Get the number of providers. */
+	int size() {
+		return this.size;
+	}
+
+	/** Get the provider with the given id, or null. Does not lock. */
+	Provider get(int id) {
+		final Table table = this.table;
+		final long key = key(id);
+		for (int i = hash(id) & table.mask;; i = (i + 1) & table.mask) {
+			final long k = table.keys.get(i);
+			if (k == key) {
+				final Provider provider = table.values.get(i);
+				// the slot may have been reused concurrently
+				return provider != null && provider.getId() == id ? provider : null;
+			}
+			if (k == EMPTY) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Add a provider. The caller must serialize the writers.
+	 *
+	 * @return false if a provider with the same id is already registered.
+	 */
+	boolean add(Provider provider) {
+		final int id = provider.getId();
+		if (get(id) != null) {
+			return false;
+		}
+		if ((this.occupied + 1) * 2 > this.table.keys.length()) {
+			rehash();
+		}
+
+		// dense array first, the provider is visible by iterators before lookups
+		AtomicReferenceArray<Provider> dense = this.dense;
+		final int position = this.size;
+		if (position == dense.length()) {
+			final AtomicReferenceArray<Provider> grown = new AtomicReferenceArray<>(position * 2);
+			for (int i = 0; i < position; i++) {
+				grown.set(i, dense.get(i));
+			}
+			this.dense = dense = grown;
+		}
+		dense.set(position, provider);
+		this.size = position + 1;
+
+		final Table table = this.table;
+		int i = hash(id) & table.mask;
+		while (table.keys.get(i) != EMPTY && table.keys.get(i) != DELETED) {
+			i = (i + 1) & table.mask;
+		}
+		if (table.keys.get(i) == EMPTY) {
+			this.occupied++;
+		}
+		table.positions[i] = position;
+		table.values.set(i, provider);
+		table.keys.set(i, key(id));
+		return true;
+	}
+
+	/**
+	 * Remove a provider. The caller must serialize the writers.
+	 *
+	 * @return The removed provider, or null if not registered.
+	 */
+	Provider remove(int id) {
+		final Table table = this.table;
+		final long key = key(id);
+		int i = hash(id) & table.mask;
+		while (table.keys.get(i) != key) {
+			if (table.keys.get(i) == EMPTY) {
+				return null;
+			}
+			i = (i + 1) & table.mask;
+		}
+		final Provider provider = table.values.get(i);
+		final int position = table.positions[i];
+		table.keys.set(i, DELETED);
+		table.values.set(i, null);
+
+		// move the last provider into the hole
+		final AtomicReferenceArray<Provider> dense = this.dense;
+		final int last = this.size - 1;
+		if (position != last) {
+			final Provider moved = dense.get(last);
+			dense.set(position, moved);
+			table.positions[slot(table, moved.getId())] = position;
+		}
+		this.size = last;
+		dense.set(last, null);
+		return provider;
+	}
+
+	private static int slot(Table table, int id) {
+		final long key = key(id);
+		int i = hash(id) & table.mask;
+		while (table.keys.get(i) != key) {
+			i = (i + 1) & table.mask;
+		}
+		return i;
+	}
+
+	/** Publish a new table without the deleted slots, larger if needed. */
+	private void rehash() {
+		int capacity = INITIAL_CAPACITY;
+		while ((this.size + 1) * 2 > capacity) {
+			capacity <<= 1;
+		}
+		if (capacity < this.table.keys.length()) {
+			capacity = this.table.keys.length(); // never shrink
+		}
+		final Table table = new Table(capacity);
+		final AtomicReferenceArray<Provider> dense = this.dense;
+		for (int position = 0; position < this.size; position++) {
+			final Provider provider = dense.get(position);
+			int i = hash(provider.getId()) & table.mask;
+			while (table.keys.get(i) != EMPTY) {
+				i = (i + 1) & table.mask;
+			}
+			table.positions[i] = position;
+			table.values.set(i, provider);
+			table.keys.set(i, key(provider.getId()));
+		}
+		this.occupied = this.size;
+		this.table = table;
+	}
+
+	/** Call the action for each provider, without copying nor locking. */
+	void forEach(Consumer<? super Provider> action) {
+		final AtomicReferenceArray<Provider> dense = this.dense;
+		final int size = Math.min(this.size, dense.length());
+		for (int i = 0; i < size; i++) {
+			final Provider provider = dense.get(i);
+			if (provider != null) {
+				action.accept(provider);
+			}
+		}
+	}
+}
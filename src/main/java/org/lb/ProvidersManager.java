@@ -4,66 +4,176 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.lb.log.LogEvent;
 import org.lb.policies.LBPolicy;
+import org.lb.provider.CircuitBreaker;
 import org.lb.provider.Provider;
 
 public abstract class ProvidersManager implements LBPolicy {
 
 	protected static Logger logger = Logger.getLogger(ProvidersManager.class.getName());
 
-	/** Map of registered providers. */
-	private Map<Integer, Provider> registered;
+	private static final LogEvent LOG_NO_ENABLED = new LogEvent(ProvidersManager.class, Level.WARNING,
+			"There are no enabled providers.");
 
-	private final ReadWriteLock registeredLock;
+	private static final LogEvent LOG_ONE_ENABLED = new LogEvent(ProvidersManager.class, Level.INFO,
+			"1 provider is enabled");
+
+	private static final LogEvent LOG_ENABLED = new LogEvent(ProvidersManager.class, Level.INFO,
+			"{0,number,#} providers are enabled.");
+
+	/** Registered providers, readers do not lock. */
+	private final ProviderRegistry registered;
+
+	/**
+	 * Serializes the writers of {@link #registered}, and the changes of the
+	 * included providers.
+	 */
+	private final Lock registeredWriteLock;
+
+	/** Used when no provider is enabled. */
+	private static final Provider[] NO_PROVIDERS = new Provider[0];
+
+	/** Maximum number of providers chosen by the policy for each request. */
+	static final int MAX_ATTEMPTS = 3;
 
 	/**
-	 * List of enabled providers.
+	 * Immutable snapshot of the enabled providers.
 	 * <p>
-	 * This list gets overwritten after every health check. This enables O(1)
-	 * scheduling of providers as well as addition/removal (new providers being
-	 * added, providers failing, and providers being included/excluded manually).
+	 * This array gets replaced (never modified) only when a provider gets
+	 * enabled or disabled (providers failing or recovering, and providers being
+	 * included/excluded manually). This enables O(1) lock-free scheduling of
+	 * providers. The number of enabled providers is the length of the snapshot,
+	 * so the count and the providers never disagree.
 	 */
-	protected ArrayList<Provider> enabled;
+	private volatile Provider[] enabled;
+
+	/** The providers in {@link #enabled}, for O(1) lookups. */
+	private final Set<Provider> enabledSet;
 
-	/** Cache the number of enabled providers. */
-	private volatile int enabledProviders;
+	/** Serializes the writers of {@link #enabled}, readers never lock. */
+	private final Lock enabledWriteLock;
+
+	/**
+	 * Providers ejected by the request threads, until the heartbeat disables
+	 * them. They cannot be enabled again by the heartbeat meanwhile.
+	 */
+	private final Set<Provider> ejected;
 
-	protected final ReadWriteLock enabledLock;
+	/** Providers being drained, which cannot be included again. */
+	private final Set<Provider> draining;
 
 	/** Maximum number of providers. */
 	protected final int maxProviders;
 
 	protected ProvidersManager(int maxProviders) {
-		registered = new HashMap<>(maxProviders);
-		enabled = new ArrayList<>();
-		enabledProviders = 0;
-		registeredLock = new ReentrantReadWriteLock();
-		enabledLock = new ReentrantReadWriteLock();
+		registered = new ProviderRegistry();
+		enabled = NO_PROVIDERS;
+		enabledSet = ConcurrentHashMap.newKeySet();
+		registeredWriteLock = new ReentrantLock();
+		enabledWriteLock = new ReentrantLock();
+		ejected = ConcurrentHashMap.newKeySet();
+		draining = ConcurrentHashMap.newKeySet();
 
 		this.maxProviders = maxProviders;
 	}
 
-	private Provider getProvider(int id) {
-		this.registeredLock.readLock().lock();
+	/** Get a registered provider, without locking. */
+	Provider getProvider(int id) {
+		return this.registered.get(id);
+	}
+
+	/**
+	 * Include or exclude a provider.
+	 * 
+	 * @return true if succeeded, false if the provider is not registered, or if
+	 *         it is being drained and include is true.
+	 */
+	boolean include(int id, boolean include) {
+		this.registeredWriteLock.lock();
+		try {
+			Provider provider = getProvider(id);
+			if (provider == null || (include && this.draining.contains(provider))) {
+				return false;
+			}
+			provider.include(include);
+			// take effect immediately, without waiting for the next heartbeat
+			if (include == false) {
+				updateEnabledProviders(List.of(), List.of(provider));
+			} else if (provider.isEnabled()) {
+				// unless ejected: the heartbeat enables it again once disabled
+				updateEnabledProviders(List.of(provider), List.of(), true);
+			}
+			return true;
+		} finally {
+			this.registeredWriteLock.unlock();
+		}
+	}
+
+	/**
+	 * Exclude a provider until it is deregistered: it cannot be included again
+	 * meanwhile, see {@link #include(int, boolean)}.
+	 * 
+	 * @return The provider, or null if not registered.
+	 */
+	Provider drain(int id) {
+		this.registeredWriteLock.lock();
 		try {
-			return this.registered.get(id);
+			final Provider provider = getProvider(id);
+			if (provider != null) {
+				this.draining.add(provider);
+				provider.include(false);
+				updateEnabledProviders(List.of(), List.of(provider));
+			}
+			return provider;
 		} finally {
-			this.registeredLock.readLock().unlock();
+			this.registeredWriteLock.unlock();
 		}
 	}
 
-	boolean include(int id, boolean include) {
+	/**
+	 * Change the weight of a provider.
+	 * 
+	 * @return true if the provider is registered, false otherwise.
+	 * @throws IllegalArgumentException If weight <= 0.
+	 */
+	boolean setWeight(int id, int weight) {
 		Provider provider = getProvider(id);
-		boolean res = false;
-		if (provider != null) {
-			provider.include(include);
-			res = true;
+		if (provider == null) {
+			return false;
 		}
-		return res;
+		this.enabledWriteLock.lock();
+		try {
+			provider.setWeight(weight);
+			onEnabledProvidersChanged(this.enabled);
+		} finally {
+			this.enabledWriteLock.unlock();
+		}
+		return true;
+	}
+
+	/**
+	 * Called whenever the enabled providers or their weights change through this
+	 * manager, for policies keeping their own state about the enabled providers.
+	 * <p>
+	 * Invocations are serialized and the snapshot is already published, so that
+	 * the policy state can be replaced before the next change. Does nothing by
+	 * default.
+	 * 
+	 * @param enabled The new snapshot of the enabled providers, not to be
+	 *                modified.
+	 */
+	protected void onEnabledProvidersChanged(Provider[] enabled) {
+		// override if needed
 	}
 
 	/**
@@ -72,75 +182,366 @@ public abstract class ProvidersManager implements LBPolicy {
 	 * @return true if the provider was registered, false otherwise.
 	 */
 	boolean register(Provider provider) {
-		this.registeredLock.writeLock().lock();
+		this.registeredWriteLock.lock();
 		try {
 			if (this.registered.size() >= this.maxProviders) {
 				return false;
 			}
-			return this.registered.putIfAbsent(provider.getId(), provider) == null;
+			return this.registered.add(provider);
+		} finally {
+			this.registeredWriteLock.unlock();
+		}
+	}
+
+	/**
+	 * Deregister a provider. It is removed from the enabled providers first, so
+	 * it does not get any new request.
+	 * 
+	 * @return The provider, or null if not registered.
+	 */
+	Provider deregister(int id) {
+		this.registeredWriteLock.lock();
+		try {
+			final Provider provider = this.registered.get(id);
+			if (provider == null) {
+				return null;
+			}
+			// the heartbeat cannot enable it again once removed from the registry
+			this.registered.remove(id);
+			updateEnabledProviders(List.of(), List.of(provider));
+			this.ejected.remove(provider);
+			this.draining.remove(provider);
+			onDeregistered(provider);
+			return provider;
 		} finally {
-			this.registeredLock.writeLock().unlock();
+			this.registeredWriteLock.unlock();
 		}
 	}
 
+	/**
+	 * Called when a provider gets deregistered, for policies keeping some state
+	 * about each provider. Does nothing by default.
+	 */
+	protected void onDeregistered(Provider provider) {
+		// override if needed
+	}
+
 	public int enabledProviders() {
-//		this.enabledLock.readLock().lock();
-//		try {
-//			return this.enabled.size();
-//		} finally {
-//			this.enabledLock.readLock().unlock();
-//		}
-		return this.enabledProviders; // volatile variable
+		return this.enabled.length; // volatile read
+	}
+
+	/**
+	 * Get the current snapshot of the enabled providers.
+	 * <p>
+	 * Policies must read it once per selection and must not modify it.
+	 */
+	protected final Provider[] enabledSnapshot() {
+		return this.enabled;
+	}
+
+	/**
+	 * Choose a provider according to the policy and take one of its permits.
+	 * <p>
+	 * If the chosen provider is saturated, i.e., it has min(maxLoad, capacity)
+	 * pending requests, or if its circuit breaker does not let the request
+	 * through, the policy is asked for another provider with
+	 * {@link #selectNext(long, int)}, up to {@value #MAX_ATTEMPTS} providers in
+	 * total. If they are all saturated or broken too, the enabled providers are
+	 * tried once each, from a random one, so that a request is only rejected if
+	 * all of them are. The caller must call
+	 * {@link #releaseProvider(Provider, long)} once the request has been served,
+	 * and report the outcome to the provider's circuit breaker.
+	 * 
+	 * @param maxLoad Maximum number of pending requests of each provider.
+	 * @return The provider, or null if no provider is enabled or all the enabled
+	 *         providers are saturated or broken.
+	 */
+	Provider acquireProvider(int maxLoad) {
+		final Provider selected = selectProvider();
+		if (selected == null) {
+			return null;
+		}
+		if (tryAcquire(selected, maxLoad)) {
+			onAcquired(selected);
+			return selected;
+		}
+		// spread the retries of the requests without a key
+		return acquireNext(ThreadLocalRandom.current().nextLong(), maxLoad);
+	}
+
+	/**
+	 * Choose a provider for the key according to the policy and take one of its
+	 * permits, see {@link #acquireProvider(int)}.
+	 * 
+	 * @param key The hash of the request key.
+	 */
+	Provider acquireProvider(long key, int maxLoad) {
+		final Provider selected = selectProvider(key);
+		if (selected == null) {
+			return null;
+		}
+		if (tryAcquire(selected, maxLoad)) {
+			onAcquired(selected);
+			return selected;
+		}
+		return acquireNext(key, maxLoad);
+	}
+
+	private Provider acquireNext(long key, int maxLoad) {
+		final Provider[] enabled = this.enabled;
+		final int size = enabled.length;
+		final int attempts = Math.min(MAX_ATTEMPTS, size);
+		for (int attempt = 1; attempt < attempts; attempt++) {
+			final Provider provider = selectNext(key, attempt);
+			if (provider == null) {
+				return null;
+			}
+			if (tryAcquire(provider, maxLoad)) {
+				onAcquired(provider);
+				return provider;
+			}
+		}
+
+		// last resort, the providers tried by the policy fail fast
+		if (size > 1) {
+			int index = ThreadLocalRandom.current().nextInt(size);
+			for (int i = 0; i < size; i++) {
+				final Provider provider = enabled[index];
+				if (tryAcquire(provider, maxLoad)) {
+					onAcquired(provider);
+					return provider;
+				}
+				if (++index == size) {
+					index = 0;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Choose another provider for a request, once the previous ones were
+	 * saturated or broken. Called without allocating, at most
+	 * {@value #MAX_ATTEMPTS} - 1 times per request.
+	 * <p>
+	 * Asks {@link #selectProvider(long)} again by default. Policies whose choice
+	 * does not change from one call to the next, e.g., with affinity, override
+	 * it to return the next best provider.
+	 * 
+	 * @param key     The hash of the request key, or a random value for the
+	 *                requests without a key.
+	 * @param attempt 1 for the second provider tried, 2 for the third one...
+	 * @return The provider, or null if no provider is available.
+	 */
+	protected Provider selectNext(long key, int attempt) {
+		return selectProvider(key);
+	}
+
+	/**
+	 * Give back the permit of a provider returned by
+	 * {@link #acquireProvider(int)}, once it has served the request.
+	 * 
+	 * @param latencyNanos The time the provider took to serve the request.
+	 */
+	void releaseProvider(Provider provider, long latencyNanos) {
+		provider.decreasePending();
+		onReleased(provider, latencyNanos);
+	}
+
+	/**
+	 * Called on the request path when a request is forwarded to a provider, for
+	 * policies tracking the requests in flight. Does nothing by default.
+	 */
+	protected void onAcquired(Provider provider) {
+		// override if needed
+	}
+
+	/**
+	 * Called on the request path when a provider has served a request, for
+	 * policies tracking the requests in flight or the latency of the providers.
+	 * Does nothing by default.
+	 * 
+	 * @param latencyNanos The time the provider took to serve the request.
+	 */
+	protected void onReleased(Provider provider, long latencyNanos) {
+		// override if needed
+	}
+
+	/**
+	 * Get a permit from the circuit breaker of the provider, then a pending slot.
+	 * The breaker is checked first: it only costs a volatile read when closed.
+	 */
+	private static boolean tryAcquire(Provider provider, int maxLoad) {
+		final CircuitBreaker breaker = provider.getCircuitBreaker();
+		if (breaker.tryAcquire() == false) {
+			return false;
+		}
+		if (provider.tryIncreasePending(Math.min(maxLoad, provider.getCapacity()))) {
+			return true;
+		}
+		breaker.release();
+		return false;
 	}
 
 	List<Provider> getRegisteredProviders() {
 		// shallow copy
-		this.registeredLock.readLock().lock();
+		List<Provider> list = new ArrayList<>(this.registered.size());
+		this.registered.forEach(list::add);
+		return list;
+	}
+
+	/**
+	 * Call the action for each registered provider, without copying nor locking.
+	 * Providers registered or deregistered concurrently may be missed.
+	 */
+	void forEachRegisteredProvider(Consumer<? super Provider> action) {
+		this.registered.forEach(action);
+	}
+
+	/**
+	 * Check whether the provider is in the current snapshot of the enabled
+	 * providers.
+	 */
+	boolean isEnabled(Provider provider) {
+		return this.enabledSet.contains(provider);
+	}
+
+	/**
+	 * Remove an enabled provider from the enabled providers, e.g., failing too
+	 * many requests, without changing its state: the heartbeat, which owns the
+	 * state of the providers, disables it at its next cycle (see
+	 * {@link #takeEjected(Provider)}), and does not enable it again meanwhile.
+	 * 
+	 * @return true if the provider was enabled, false otherwise.
+	 */
+	boolean eject(Provider provider) {
+		this.enabledWriteLock.lock();
+		try {
+			if (this.enabledSet.contains(provider) == false) {
+				return false;
+			}
+			this.ejected.add(provider);
+			return updateEnabledProviders(List.of(), List.of(provider));
+		} finally {
+			this.enabledWriteLock.unlock();
+		}
+	}
+
+	/**
+	 * Forget the ejection of a provider. Called by the heartbeat, which disables
+	 * the provider then.
+	 * 
+	 * @return true if the provider was ejected since the last call.
+	 */
+	boolean takeEjected(Provider provider) {
+		return this.ejected.remove(provider);
+	}
+
+	/**
+	 * Replace all the enabled providers.
+	 */
+	void setEnabledProviders(List<Provider> enabled) {
+		this.enabledWriteLock.lock();
 		try {
-			return new ArrayList<>(registered.values());
+			// publish a copy, the caller may still modify the list
+			final Provider[] snapshot = enabled.toArray(NO_PROVIDERS);
+			this.enabledSet.clear();
+			this.enabledSet.addAll(enabled);
+			this.enabled = snapshot;
+			onEnabledProvidersChanged(snapshot);
 		} finally {
-			this.registeredLock.readLock().unlock();
+			this.enabledWriteLock.unlock();
 		}
+		logEnabledProviders(enabled.size());
+	}
+
+	/**
+	 * Enable and disable some providers. A new snapshot of the enabled providers
+	 * is published only if at least one provider changes state.
+	 * 
+	 * @param enable  Providers to enable, if not enabled yet.
+	 * @param disable Providers to disable, if enabled. If a provider is in both
+	 *                lists, it gets disabled.
+	 * @return true if a new snapshot was published, false otherwise.
+	 */
+	boolean updateEnabledProviders(List<Provider> enable, List<Provider> disable) {
+		return updateEnabledProviders(enable, disable, false);
 	}
 
-	void setEnabledProviders(ArrayList<Provider> enabled) {
-		this.enabledLock.writeLock().lock();
+	/**
+	 * Enable and disable some providers.
+	 * 
+	 * @param currentOnly true to ignore the providers to enable which are no
+	 *                    longer registered or included, or which were ejected or
+	 *                    are being drained, e.g., deregistered, excluded, ejected
+	 *                    or drained while being checked.
+	 * @see #updateEnabledProviders(List, List)
+	 */
+	boolean updateEnabledProviders(List<Provider> enable, List<Provider> disable, boolean currentOnly) {
+		final int size;
+		this.enabledWriteLock.lock();
 		try {
-			this.enabled = enabled;
-			this.enabledProviders = this.enabled.size();
+			List<Provider> added = new ArrayList<>();
+			for (Provider provider : enable) {
+				if (currentOnly && (this.registered.get(provider.getId()) != provider
+						|| provider.isIncluded() == false || this.ejected.contains(provider)
+						|| this.draining.contains(provider))) {
+					continue;
+				}
+				if (this.enabledSet.add(provider)) {
+					added.add(provider);
+				}
+			}
+			boolean changed = added.isEmpty() == false;
+			for (Provider provider : disable) {
+				changed |= this.enabledSet.remove(provider);
+			}
+			if (changed == false) {
+				return false;
+			}
+
+			// keep the order of the providers that are still enabled, then the new ones
+			final Provider[] snapshot = new Provider[this.enabledSet.size()];
+			int i = 0;
+			for (Provider provider : this.enabled) {
+				if (this.enabledSet.contains(provider)) {
+					snapshot[i++] = provider;
+				}
+			}
+			for (Provider provider : added) {
+				if (this.enabledSet.contains(provider)) {
+					snapshot[i++] = provider;
+				}
+			}
+			this.enabled = snapshot;
+			onEnabledProvidersChanged(snapshot);
+			size = snapshot.length;
 		} finally {
-			this.enabledLock.writeLock().unlock();
+			this.enabledWriteLock.unlock();
 		}
+		logEnabledProviders(size);
+		return true;
+	}
 
-		final int size = enabled.size();
+	private static void logEnabledProviders(int size) {
 		if (size == 0) {
-			logger.warning("There are no enabled providers.");
+			LOG_NO_ENABLED.log();
 		} else {
 			if (size == 1) {
-				logger.info("1 provider is enabled");
+				LOG_ONE_ENABLED.log();
 			} else {
-				logger.info(size + " providers are enabled.");
+				LOG_ENABLED.log(size);
 			}
 		}
 	}
 
 	int registeredProviders() {
-		this.registeredLock.readLock().lock();
-		try {
-			return this.registered.size();
-		} finally {
-			this.registeredLock.readLock().unlock();
-		}
+		return this.registered.size();
 	}
 
 	Map<Integer, Long> statistics() {
 		Map<Integer, Long> map = new HashMap<>();
-		this.registeredLock.readLock().lock();
-		try {
-			this.registered.values().forEach(x -> map.put(x.getId(), x.getRequests()));
-		} finally {
-			this.registeredLock.readLock().unlock();
-		}
+		this.registered.forEach(x -> map.put(x.getId(), x.getRequests()));
 		return map;
 	}
 }
@@ -0,0 +1,128 @@
+package org.lb;
+
+import java.util.Map;
+
+/**
+ * Immutable view of the load balancer counters over a rolling time window
+ * ending at the time it was taken.
+ */
+public final class RateSnapshot {
+
+	/** Duration of the window, in seconds. */
+	private final int seconds;
+
+	/** Number of served requests. */
+	private final long success;
+
+	/** Number of requests failed by their provider. */
+	private final long failed;
+
+	/** Number of requests rejected because all the providers were saturated. */
+	private final long overloaded;
+
+	/** Number of requests rejected because no provider was enabled. */
+	private final long noProvider;
+
+	/** Number of requests rejected because the load balancer was not started. */
+	private final long notStarted;
+
+	/** Number of requests forwarded to each provider, by id. */
+	private final Map<Integer, Long> selections;
+
+	RateSnapshot(int seconds, long success, long failed, long overloaded, long noProvider, long notStarted,
+			Map<Integer, Long> selections) {
+		this.seconds = seconds;
+		this.success = success;
+		this.failed = failed;
+		this.overloaded = overloaded;
+		this.noProvider = noProvider;
+		this.notStarted = notStarted;
+		this.selections = Map.copyOf(selections);
+	}
+
+	/** Get the duration of the window, in seconds. */
+	public int getSeconds() {
+		return seconds;
+	}
+
+	/**
+	 * Get the number of received requests. This is equivalent to
+	 * {@link #getSuccess()} + {@link #getRejected()}.
+	 */
+	public long getArrivals() {
+		return success + getRejected();
+	}
+
+	/** Get the number of requests successfully served. */
+	public long getSuccess() {
+		return success;
+	}
+
+	/**
+	 * Get the number of rejected requests, for any reason. This is the sum of
+	 * {@link #getFailed()}, {@link #getOverloaded()}, {@link #getNoProvider()}
+	 * and {@link #getNotStarted()}.
+	 */
+	public long getRejected() {
+		return failed + overloaded + noProvider + notStarted;
+	}
+
+	/** Get the number of requests failed by their provider. */
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * Get the number of requests rejected because all the enabled providers were
+	 * saturated.
+	 */
+	public long getOverloaded() {
+		return overloaded;
+	}
+
+	/** Get the number of requests rejected because no provider was enabled. */
+	public long getNoProvider() {
+		return noProvider;
+	}
+
+	/**
+	 * Get the number of requests rejected because the load balancer was not
+	 * started.
+	 */
+	public long getNotStarted() {
+		return notStarted;
+	}
+
+	/**
+	 * Get the number of requests forwarded to each provider, whatever their
+	 * outcome.
+	 *
+	 * @return a map mapping provider IDs to their number of requests, for the
+	 *         providers which received at least one request.
+	 */
+	public Map<Integer, Long> getSelections() {
+		return selections;
+	}
+
+	/** Get the number of received requests per second. */
+	public double getArrivalRate() {
+		return (double) getArrivals() / seconds;
+	}
+
+	/** Get the number of served requests per second. */
+	public double getSuccessRate() {
+		return (double) success / seconds;
+	}
+
+	/** Get the number of rejected requests per second. */
+	public double getRejectionRate() {
+		return (double) getRejected() / seconds;
+	}
+
+	@Override
+	public String toString() {
+		return "window (s): " + seconds + ", arrivals: " + getArrivals() + ", success: " + success + ", failed: "
+				+ failed + ", overloaded: " + overloaded + ", no provider: " + noProvider + ", not started: "
+				+ notStarted + ", selections: " + selections;
+	}
+}
@@ -0,0 +1,153 @@
+package org.lb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters over a rolling time window of up to {@value #MAX_WINDOW_SECONDS}
+ * seconds.
+ * <p>
+ * The window is a ring of buckets of {@value #BUCKET_MILLIS} ms by default,
+ * each bucket tagged with the time slot it refers to, as in
+ * {@link OutlierDetector}. There is no rotation task and no lock: a stale bucket
+ * is reset by the first increment falling into it, and concurrent resets may
+ * lose a few increments. Reading a window sums the buckets of the last slots,
+ * the current one included, so a window of n seconds covers between n minus one
+ * bucket and n seconds. Longer buckets make a smaller ring, e.g., 1 s buckets
+ * take 10 times less memory, and are read 10 times faster, than the default.
+ * <p>
+ * The ring is split into stripes, and each thread is mapped to a stripe as in
+ * {@link LatencyHistogram}, so that concurrent increments of the current bucket
+ * do not contend on the same cache line. The stripes are summed when read.
+ */
+class RollingWindow {
+
+	/** Default duration of each bucket. */
+	static final long BUCKET_MILLIS = 100L;
+
+	/** Longest window. */
+	static final int MAX_WINDOW_SECONDS = 60;
+
+	/** Bucket layout: time slot, then the counters. */
+	private static final int SLOT = 0;
+
+	/** Time slot of a bucket never used. */
+	private static final long NO_SLOT = Long.MIN_VALUE;
+
+	/** Duration of each bucket. */
+	private final long bucketMillis;
+
+	private final long bucketNanos;
+
+	/** Number of buckets of the ring. */
+	private final int ringSize;
+
+	/** Number of counters of each bucket. */
+	private final int counters;
+
+	/** Distance between two buckets. */
+	private final int bucketSize;
+
+	/** Distance between the beginning of two stripes. */
+	private final int width;
+
+	/** Number of stripes, a power of 2. */
+	private final int stripes;
+
+	private final AtomicLongArray buckets;
+
+	/**
+	 * Create a window with buckets of {@value #BUCKET_MILLIS} ms.
+	 * 
+	 * @param counters Number of counters.
+	 * @param stripes  Number of stripes, rounded up to the next power of 2.
+	 * @throws IllegalArgumentException If counters <= 0 or stripes <= 0.
+	 */
+	RollingWindow(int counters, int stripes) {
+		this(counters, stripes, BUCKET_MILLIS);
+	}
+
+	/**
+	 * @param counters     Number of counters.
+	 * @param stripes      Number of stripes, rounded up to the next power of 2.
+	 * @param bucketMillis Duration of each bucket, dividing 1000.
+	 * @throws IllegalArgumentException If counters <= 0, stripes <= 0 or
+	 *                                  bucketMillis does not divide 1000.
+	 */
+	RollingWindow(int counters, int stripes, long bucketMillis) {
+		if (bucketMillis < 1L || 1_000L % bucketMillis != 0L) {
+			throw new IllegalArgumentException("bucket duration must divide 1000 ms");
+		}
+		if (counters < 1) {
+			throw new IllegalArgumentException("counters must be positive");
+		}
+		this.bucketMillis = bucketMillis;
+		this.bucketNanos = bucketMillis * 1_000_000L;
+		this.ringSize = (int) (MAX_WINDOW_SECONDS * 1_000L / bucketMillis);
+		this.counters = counters;
+		this.bucketSize = counters + 1;
+		this.width = this.ringSize * this.bucketSize + Stripes.STRIDE;
+		this.stripes = Stripes.count(stripes);
+		// one padding area at the beginning as well
+		buckets = new AtomicLongArray(Stripes.STRIDE + this.stripes * this.width);
+		for (int s = 0; s < this.stripes; s++) {
+			for (int i = 0; i < this.ringSize; i++) {
+				buckets.set(Stripes.STRIDE + s * this.width + i * this.bucketSize + SLOT, NO_SLOT);
+			}
+		}
+	}
+
+	/**
+	 * Increment a counter. Does not lock nor allocate.
+	 *
+	 * @param counter  The counter, in [0, counters).
+	 * @param nowNanos The current time, see {@link System#nanoTime()}.
+	 */
+	void increment(int counter, long nowNanos) {
+		final long slot = Math.floorDiv(nowNanos, this.bucketNanos);
+		final int base = Stripes.STRIDE + Stripes.current(this.stripes) * this.width
+				+ (int) Math.floorMod(slot, (long) this.ringSize) * this.bucketSize;
+
+		final long current = this.buckets.get(base + SLOT);
+		if (current != slot && this.buckets.compareAndSet(base + SLOT, current, slot)) {
+			// stale bucket, reset it
+			for (int i = 1; i <= this.counters; i++) {
+				this.buckets.set(base + i, 0L);
+			}
+		}
+		this.buckets.incrementAndGet(base + 1 + counter);
+	}
+
+	/**
+	 * Sum each counter over a window.
+	 *
+	 * @param seconds  The duration of the window, in [1, 60].
+	 * @param nowNanos The current time, see {@link System#nanoTime()}.
+	 * @return The sum of each counter.
+	 * @throws IllegalArgumentException If seconds is not in [1, 60].
+	 */
+	long[] sum(int seconds, long nowNanos) {
+		checkWindow(seconds);
+		final long slots = seconds * 1_000L / this.bucketMillis;
+		final long now = Math.floorDiv(nowNanos, this.bucketNanos);
+		final long[] sums = new long[this.counters];
+		for (int s = 0; s < this.stripes; s++) {
+			for (int i = 0; i < this.ringSize; i++) {
+				final int base = Stripes.STRIDE + s * this.width + i * this.bucketSize;
+				final long slot = this.buckets.get(base + SLOT);
+				if (slot != NO_SLOT && now - slot >= 0L && now - slot < slots) {
+					for (int c = 0; c < this.counters; c++) {
+						sums[c] += this.buckets.get(base + 1 + c);
+					}
+				}
+			}
+		}
+		return sums;
+	}
+
+	static void checkWindow(int seconds) {
+		if (seconds < 1 || seconds > MAX_WINDOW_SECONDS) {
+			throw new IllegalArgumentException("window must be in [1, " + MAX_WINDOW_SECONDS + "] seconds");
+		}
+	}
+
+}
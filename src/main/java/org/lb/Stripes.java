@@ -0,0 +1,39 @@
+package org.lb;
+
+/**
+ * Maps threads to stripes, so that counters updated by many threads can be
+ * split into stripes that do not contend on the same cache line.
+ */
+public final class Stripes {
+
+	/** Padding between two stripes, 128 bytes, to avoid false sharing. */
+	public static final int STRIDE = 16;
+
+	private Stripes() {
+		// avoid instantiation
+	}
+
+	/**
+	 * Round a number of stripes up to the next power of 2.
+	 *
+	 * @throws IllegalArgumentException If stripes <= 0.
+	 */
+	public static int count(int stripes) {
+		if (stripes < 1) {
+			throw new IllegalArgumentException("stripes must be positive");
+		}
+		return stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+	}
+
+	/**
+	 * Get the stripe of the current thread.
+	 *
+	 * @param stripes Number of stripes, a power of 2.
+	 */
+	public static int current(int stripes) {
+		long id = Thread.currentThread().getId();
+		int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9; // spread consecutive ids
+		return (h ^ (h >>> 16)) & (stripes - 1);
+	}
+
+}
@@ -0,0 +1,60 @@
+package org.lb;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Creates executors running each task on its own virtual thread, when the JDK
+ * supports them (JDK 21 or later).
+ * <p>
+ * This library still compiles for older JDKs, so virtual threads are looked up
+ * by reflection. On older JDKs a pool of platform threads is used instead.
+ */
+public final class VirtualThreads {
+
+	private static Logger logger = Logger.getLogger(VirtualThreads.class.getName());
+
+	/** Executors.newVirtualThreadPerTaskExecutor(), or null if not supported. */
+	private static final Method FACTORY = lookup();
+
+	private VirtualThreads() {
+		// avoid instantiation
+	}
+
+	private static Method lookup() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/** True if the JDK supports virtual threads, false otherwise. */
+	public static boolean isSupported() {
+		return FACTORY != null;
+	}
+
+	/**
+	 * Create an executor running each task on a new virtual thread.
+	 *
+	 * @param fallbackThreads The number of platform threads used if virtual
+	 *                        threads are not supported.
+	 * @throws IllegalArgumentException If fallbackThreads <= 0.
+	 */
+	public static ExecutorService newThreadPerTaskExecutor(int fallbackThreads) {
+		if (fallbackThreads < 1) {
+			throw new IllegalArgumentException("fallbackThreads must be positive");
+		}
+		if (FACTORY != null) {
+			try {
+				return (ExecutorService) FACTORY.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				logger.warning("Cannot create virtual threads: " + e);
+			}
+		}
+		logger.warning("Virtual threads not supported, using " + fallbackThreads + " platform threads");
+		return Executors.newFixedThreadPool(fallbackThreads);
+	}
+}
@@ -0,0 +1,205 @@
+package org.lb.log;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.LogRecord;
+
+/**
+ * Bounded ring buffer of log messages, published to JUL by a background
+ * thread.
+ * <p>
+ * The ring is a multi-producer, single-consumer queue without lock: each slot
+ * has a sequence number telling whether it is free for the producer claiming
+ * the tail, or published for the consumer at the head. A producer claims a
+ * slot with a CAS on the tail, writes the message, then publishes it by
+ * setting the sequence of the slot. When the ring is full, the message is
+ * dropped and counted as suppressed by its {@link LogEvent}.
+ * <p>
+ * Messages are drained, formatted and written to the handlers by one thread at
+ * a time, either the background thread, every {@value #DRAIN_INTERVAL_MS} ms,
+ * or a thread calling {@link #drain()}. Once per second, the drain also reports
+ * the messages suppressed since the previous report, and grants each event its
+ * rate again.
+ */
+final class LogChannel {
+
+	/** Capacity of the default channel. */
+	static final int CAPACITY = 1024;
+
+	/** Interval between two drains of the background thread. */
+	static final long DRAIN_INTERVAL_MS = 10L;
+
+	/** Interval between two reports of the suppressed messages. */
+	static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1L);
+
+	/** The channel of the events created without one, drained in background. */
+	static final LogChannel DEFAULT = new LogChannel(CAPACITY).startDrainer("lb-log");
+
+	private final int mask;
+
+	/** Sequence of each slot, see the class comment. */
+	private final AtomicLongArray sequences;
+
+	private final AtomicReferenceArray<LogEvent> events;
+
+	/** Time of each message, in milliseconds since the epoch. */
+	private final long[] millis;
+
+	/** Two arguments per message. */
+	private final long[] args;
+
+	/** Next slot to claim. */
+	private final AtomicLong tail = new AtomicLong();
+
+	/** Next slot to drain, only accessed by the thread draining. */
+	private long head;
+
+	/** Time of the last report, only accessed by the thread draining. */
+	private long lastReport;
+
+	private final List<LogEvent> registered = new CopyOnWriteArrayList<>();
+
+	/**
+	 * @param capacity The number of messages waiting to be published, rounded up
+	 *                 to the next power of 2.
+	 * @throws IllegalArgumentException If capacity <= 0.
+	 */
+	LogChannel(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		this.mask = size - 1;
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			this.sequences.set(i, i);
+		}
+		this.events = new AtomicReferenceArray<>(size);
+		this.millis = new long[size];
+		this.args = new long[2 * size];
+		this.lastReport = System.nanoTime();
+	}
+
+	/**
+	 * Start a daemon thread draining this channel every
+	 * {@value #DRAIN_INTERVAL_MS} ms, until the JVM exits. An exception thrown by
+	 * a handler is passed to the uncaught exception handler of the thread, and the
+	 * thread goes on.
+	 */
+	LogChannel startDrainer(String name) {
+		final Thread drainer = new Thread(() -> {
+			while (true) {
+				try {
+					drain();
+				} catch (RuntimeException | Error e) {
+					// report it, but keep publishing the next messages
+					final Thread current = Thread.currentThread();
+					current.getUncaughtExceptionHandler().uncaughtException(current, e);
+				}
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(DRAIN_INTERVAL_MS));
+			}
+		}, name);
+		drainer.setDaemon(true);
+		drainer.start();
+		return this;
+	}
+
+	/** Report the suppressed messages of the event. */
+	void register(LogEvent event) {
+		this.registered.add(event);
+	}
+
+	/**
+	 * Add a message. Does not lock nor allocate.
+	 *
+	 * @return false if the ring is full.
+	 */
+	boolean offer(LogEvent event, long arg0, long arg1) {
+		long t;
+		int index;
+		while (true) {
+			t = this.tail.get();
+			index = (int) t & this.mask;
+			final long sequence = this.sequences.get(index);
+			if (sequence < t) {
+				// the slot still holds the message of the previous lap
+				return false;
+			}
+			// otherwise, another producer claimed the slot first
+			if (sequence == t && this.tail.compareAndSet(t, t + 1L)) {
+				break;
+			}
+		}
+
+		this.millis[index] = System.currentTimeMillis();
+		this.args[2 * index] = arg0;
+		this.args[2 * index + 1] = arg1;
+		this.events.lazySet(index, event);
+		// publish the slot to the consumer
+		this.sequences.set(index, t + 1L);
+		return true;
+	}
+
+	/**
+	 * Publish the waiting messages, then report the suppressed messages if the
+	 * last report is older than a second.
+	 *
+	 * @return The number of published messages, reports included.
+	 */
+	int drain() {
+		return drain(System.nanoTime());
+	}
+
+	/**
+	 * @param nowNanos The current time, see {@link System#nanoTime()}.
+	 */
+	synchronized int drain(long nowNanos) {
+		int published = 0;
+		while (true) {
+			final int index = (int) this.head & this.mask;
+			if (this.sequences.get(index) != this.head + 1L) {
+				break;
+			}
+			final LogEvent event = this.events.get(index);
+			final long time = this.millis[index];
+			final long arg0 = this.args[2 * index];
+			final long arg1 = this.args[2 * index + 1];
+			this.events.lazySet(index, null);
+			// free the slot for the next lap
+			this.sequences.set(index, this.head + this.mask + 1L);
+			this.head++;
+
+			publish(event, event.getPattern(), time, arg0, arg1);
+			published++;
+		}
+
+		if (nowNanos - this.lastReport >= REPORT_INTERVAL_NANOS) {
+			this.lastReport = nowNanos;
+			for (LogEvent event : this.registered) {
+				final long suppressed = event.resetRate();
+				if (suppressed > 0L) {
+					publish(event, "{0,number,#} messages suppressed: {1}", System.currentTimeMillis(), suppressed,
+							event.getPattern());
+					published++;
+				}
+			}
+		}
+		return published;
+	}
+
+	private static void publish(LogEvent event, String pattern, long time, Object arg0, Object arg1) {
+		final LogRecord record = new LogRecord(event.getLevel(), pattern);
+		record.setInstant(Instant.ofEpochMilli(time));
+		record.setLoggerName(event.getLogger().getName());
+		record.setSourceClassName(event.getLogger().getName());
+		record.setSourceMethodName(null);
+		record.setParameters(new Object[] { arg0, arg1 });
+		event.getLogger().log(record);
+	}
+}
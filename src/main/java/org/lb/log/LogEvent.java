@@ -0,0 +1,154 @@
+package org.lb.log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A type of log message, published asynchronously and rate limited.
+ * <p>
+ * Logging through JUL formats the message, infers the caller and writes it to
+ * the handlers, under their lock, in the calling thread: when every request
+ * logs, e.g., while all the providers are down, the request threads serialize
+ * on the handlers. A message logged through an event is instead added to a
+ * ring buffer, with up to two numeric arguments and without allocating, and is
+ * formatted and written to the logger of the event by a background thread.
+ * <p>
+ * Each event publishes at most a given number of messages per second. The
+ * others are suppressed: counting them is all they cost, and their number is
+ * logged once per second instead. Messages are also suppressed when the ring
+ * buffer is full. Messages below the level of the logger are discarded at
+ * once, as by JUL.
+ * <p>
+ * The pattern is formatted by the handlers, with the arguments as
+ * {@link java.text.MessageFormat} parameters <code>{0}</code> and
+ * <code>{1}</code>, e.g., <code>"Provider {0,number,#} weight:
+ * {1,number,#}"</code>.
+ */
+public final class LogEvent {
+
+	/** Messages per second, unless specified. */
+	public static final int DEFAULT_RATE = 100;
+
+	private final Logger logger;
+
+	private final Level level;
+
+	private final String pattern;
+
+	/** Messages per second. */
+	private final int rate;
+
+	private final LogChannel channel;
+
+	/** Messages which may still be published before the next report. */
+	private final AtomicInteger permits;
+
+	/** Suppressed messages, never reset. */
+	private final LongAdder suppressed = new LongAdder();
+
+	/** Suppressed messages already reported, only accessed by the channel. */
+	private long reported;
+
+	/**
+	 * Create an event publishing up to {@value #DEFAULT_RATE} messages per second.
+	 *
+	 * @param source  The class logging the messages, naming the logger.
+	 * @param level   The level of the messages.
+	 * @param pattern The message, see the class comment.
+	 */
+	public LogEvent(Class<?> source, Level level, String pattern) {
+		this(source, level, pattern, DEFAULT_RATE);
+	}
+
+	/**
+	 * @param source  The class logging the messages, naming the logger.
+	 * @param level   The level of the messages.
+	 * @param pattern The message, see the class comment.
+	 * @param rate    The maximum number of messages published per second.
+	 * @throws IllegalArgumentException If rate <= 0.
+	 */
+	public LogEvent(Class<?> source, Level level, String pattern, int rate) {
+		this(Logger.getLogger(source.getName()), level, pattern, rate, LogChannel.DEFAULT);
+	}
+
+	LogEvent(Logger logger, Level level, String pattern, int rate, LogChannel channel) {
+		if (rate < 1) {
+			throw new IllegalArgumentException("rate must be positive");
+		}
+		this.logger = logger;
+		this.level = level;
+		this.pattern = pattern;
+		this.rate = rate;
+		this.channel = channel;
+		this.permits = new AtomicInteger(rate);
+		channel.register(this);
+	}
+
+	/**
+	 * Publish all the messages logged so far by the events created without a
+	 * channel, in the calling thread, e.g., before the application stops.
+	 */
+	public static void flush() {
+		LogChannel.DEFAULT.drain();
+	}
+
+	/** Log a message. Does not lock nor allocate. */
+	public void log() {
+		log(0L, 0L);
+	}
+
+	/** Log a message with one argument. Does not lock nor allocate. */
+	public void log(long arg0) {
+		log(arg0, 0L);
+	}
+
+	/** Log a message with two arguments. Does not lock nor allocate. */
+	public void log(long arg0, long arg1) {
+		if (this.logger.isLoggable(this.level) == false) {
+			return;
+		}
+		// once the permits are exhausted, only read until the next report
+		if (this.permits.get() <= 0 || this.permits.getAndDecrement() <= 0
+				|| this.channel.offer(this, arg0, arg1) == false) {
+			this.suppressed.increment();
+		}
+	}
+
+	/** Get the number of suppressed messages since this event was created. */
+	public long getSuppressed() {
+		return this.suppressed.sum();
+	}
+
+	public Level getLevel() {
+		return this.level;
+	}
+
+	public String getPattern() {
+		return this.pattern;
+	}
+
+	Logger getLogger() {
+		return this.logger;
+	}
+
+	/**
+	 * Grant the rate again. Must only be called by the thread draining the
+	 * channel.
+	 *
+	 * @return The number of messages suppressed since the previous call.
+	 */
+	long resetRate() {
+		this.permits.set(this.rate);
+		final long total = this.suppressed.sum();
+		final long unreported = total - this.reported;
+		this.reported = total;
+		return unreported;
+	}
+
+	@Override
+	public String toString() {
+		return this.level + " " + this.pattern;
+	}
+}
@@ -0,0 +1,91 @@
+package org.lb.policies;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.lb.provider.Provider;
+
+/**
+ * Consistent hashing with bounded loads (Mirrokni, Thorup, Zadimoghaddam).
+ * <p>
+ * No provider may have more than ceil((1 + epsilon) * m / n) requests in
+ * flight, where m is the number of requests in flight including the new one and
+ * n the number of enabled providers. If the provider owning the key is at the
+ * bound, the ring is walked to the next provider below it. Hot keys therefore
+ * spill over to the following providers instead of overloading a single one,
+ * while the other keys keep their provider.
+ * <p>
+ * The requests in flight are counted by the providers, and their total by this
+ * policy in a {@link LongAdder}: acquiring and releasing a provider update a
+ * cell striped by thread rather than one contended counter, and a lookup sums
+ * the cells, at most one per core. Requests without a key are subject to the
+ * same bound.
+ */
+class BoundedLoadConsistentHashPolicy extends ConsistentHashPolicy {
+
+	/** Default load slack: 25% above the average. */
+	static final double DEFAULT_EPSILON = 0.25;
+
+	private final double epsilon;
+
+	/** Number of requests in flight, over all the providers. */
+	private final LongAdder inFlight;
+
+	public BoundedLoadConsistentHashPolicy(int maxProviders) {
+		this(maxProviders, DEFAULT_VIRTUAL_NODES, DEFAULT_EPSILON);
+	}
+
+	/**
+	 * @param epsilon The load slack: a provider may have up to (1 + epsilon)
+	 *                times the average number of requests in flight.
+	 * @throws IllegalArgumentException If epsilon <= 0.
+	 */
+	BoundedLoadConsistentHashPolicy(int maxProviders, int virtualNodes, double epsilon) {
+		super(maxProviders, virtualNodes);
+		if (!(epsilon > 0.0)) {
+			throw new IllegalArgumentException("epsilon must be positive");
+		}
+		this.epsilon = epsilon;
+		inFlight = new LongAdder();
+		logger.info("Using bounded loads, epsilon: " + epsilon);
+	}
+
+	/**
+	 * Get the maximum number of requests in flight of each provider, once the new
+	 * request is admitted.
+	 */
+	long bound(int providers) {
+		return (long) Math.ceil((1.0 + this.epsilon) * (this.inFlight.sum() + 1L) / providers);
+	}
+
+	@Override
+	protected void onAcquired(Provider provider) {
+		this.inFlight.increment();
+	}
+
+	@Override
+	protected void onReleased(Provider provider, long latencyNanos) {
+		this.inFlight.decrement();
+	}
+
+	@Override
+	public Provider selectProvider(long key) {
+		final Ring ring = ring();
+		final long[] points = ring.points;
+		if (points.length == 0) {
+			return null;
+		}
+		final long bound = bound(ring.providers);
+		final int start = index(points, mix(key));
+		int i = start;
+		do {
+			final Provider provider = ring.owners[i];
+			if (provider.getPending() < bound) {
+				return provider;
+			}
+			i = i + 1 == points.length ? 0 : i + 1;
+		} while (i != start);
+		// all at the bound, because of concurrent requests
+		return ring.owners[start];
+	}
+
+}
@@ -0,0 +1,162 @@
+package org.lb.policies;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.lb.ProvidersManager;
+import org.lb.provider.Provider;
+
+/**
+ * Consistent hashing policy, routing the requests with the same key to the same
+ * provider.
+ * <p>
+ * Each enabled provider is mapped to a number of virtual nodes on a ring of
+ * 64-bit hashes, and a key is served by the first node following its hash. The
+ * position of the nodes only depends on the provider id, so when a provider
+ * gets disabled only the keys it was serving (about 1/n of them) are remapped,
+ * spread over the remaining providers.
+ * <p>
+ * The ring is rebuilt whenever the enabled providers change, off the request
+ * path. A lookup is a binary search on a sorted array: O(log(n)), without
+ * allocating. Requests without a key are spread over the ring at random.
+ */
+class ConsistentHashPolicy extends ProvidersManager implements LBPolicy {
+
+	/** Default number of virtual nodes of each provider. */
+	static final int DEFAULT_VIRTUAL_NODES = 160;
+
+	/** Immutable ring, replaced when the enabled providers change. */
+	static final class Ring {
+
+		/** Sorted hashes of the virtual nodes. */
+		final long[] points;
+
+		/** Provider owning each virtual node. */
+		final Provider[] owners;
+
+		/** Number of providers on the ring. */
+		final int providers;
+
+		Ring(long[] points, Provider[] owners, int providers) {
+			this.points = points;
+			this.owners = owners;
+			this.providers = providers;
+		}
+	}
+
+	private static final Ring EMPTY_RING = new Ring(new long[0], new Provider[0], 0);
+
+	private final int virtualNodes;
+
+	private volatile Ring ring;
+
+	public ConsistentHashPolicy(int maxProviders) {
+		this(maxProviders, DEFAULT_VIRTUAL_NODES);
+	}
+
+	/**
+	 * @param virtualNodes Number of virtual nodes of each provider. More nodes
+	 *                     spread the keys more evenly, at the price of a larger
+	 *                     ring.
+	 * @throws IllegalArgumentException If virtualNodes <= 0.
+	 */
+	ConsistentHashPolicy(int maxProviders, int virtualNodes) {
+		super(maxProviders);
+		if (virtualNodes < 1) {
+			throw new IllegalArgumentException("virtualNodes must be positive");
+		}
+		this.virtualNodes = virtualNodes;
+		ring = EMPTY_RING;
+		logger.info("Using consistent hash policy, virtual nodes: " + virtualNodes);
+	}
+
+	/** Murmur3 finalizer, spreads the bits of the key over the ring. */
+	static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	@Override
+	protected void onEnabledProvidersChanged(Provider[] enabled) {
+		final int size = enabled.length * this.virtualNodes;
+		final long[][] nodes = new long[size][];
+		for (int i = 0; i < enabled.length; i++) {
+			for (int j = 0; j < this.virtualNodes; j++) {
+				final long point = mix(((long) enabled[i].getId() << 32) | j);
+				nodes[i * this.virtualNodes + j] = new long[] { point, i };
+			}
+		}
+		// ties are broken by the provider id, not by the order of the snapshot
+		Arrays.sort(nodes, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0])
+				: Integer.compare(enabled[(int) a[1]].getId(), enabled[(int) b[1]].getId()));
+
+		final long[] points = new long[size];
+		final Provider[] owners = new Provider[size];
+		for (int i = 0; i < size; i++) {
+			points[i] = nodes[i][0];
+			owners[i] = enabled[(int) nodes[i][1]];
+		}
+		this.ring = new Ring(points, owners, enabled.length);
+	}
+
+	/** Get the current ring. */
+	final Ring ring() {
+		return this.ring;
+	}
+
+	/**
+	 * Get the index of the virtual node serving the hash.
+	 *
+	 * @param points Sorted hashes of the virtual nodes, not empty.
+	 */
+	static int index(long[] points, long hash) {
+		int i = Arrays.binarySearch(points, hash);
+		if (i < 0) {
+			i = -i - 1; // first node after the hash
+		}
+		return i == points.length ? 0 : i;
+	}
+
+	@Override
+	public Provider selectProvider(long key) {
+		final Ring ring = this.ring;
+		if (ring.points.length == 0) {
+			return null;
+		}
+		return ring.owners[index(ring.points, mix(key))];
+	}
+
+	@Override
+	public Provider selectProvider() {
+		return selectProvider(ThreadLocalRandom.current().nextLong());
+	}
+
+	/**
+	 * Walk the ring from the key to the next providers, so that the retries of a
+	 * key keep following the same order.
+	 */
+	@Override
+	protected Provider selectNext(long key, int attempt) {
+		final Ring ring = this.ring;
+		final long[] points = ring.points;
+		if (points.length == 0) {
+			return null;
+		}
+		int i = index(points, mix(key));
+		Provider provider = ring.owners[i];
+		// skip the following virtual nodes of the same provider
+		for (int found = 0, steps = 1; found < attempt && steps < points.length; steps++) {
+			i = i + 1 == points.length ? 0 : i + 1;
+			if (ring.owners[i] != provider) {
+				provider = ring.owners[i];
+				found++;
+			}
+		}
+		return provider;
+	}
+
+}
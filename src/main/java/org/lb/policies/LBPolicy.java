@@ -12,6 +12,30 @@ public interface LBPolicy {
     
     /**
      * Chooses the provider to forward the request to.
+     * <p>
+     * This is a thin adapter on top of {@link #selectProvider()}.
      */
-    Optional<Provider> getProvider();
+    default Optional<Provider> getProvider() {
+        return Optional.ofNullable(selectProvider());
+    }
+
+    /**
+     * Chooses the provider to forward the request to, without allocating.
+     * 
+     * @return The provider, or null if no provider is available.
+     */
+    Provider selectProvider();
+
+    /**
+     * Chooses the provider to forward a request with the given key to, without
+     * allocating. Policies with affinity choose the same provider for the same
+     * key as long as the enabled providers do not change, the other policies
+     * ignore the key.
+     * 
+     * @param key The hash of the request key.
+     * @return The provider, or null if no provider is available.
+     */
+    default Provider selectProvider(long key) {
+        return selectProvider();
+    }
 }
@@ -15,4 +15,117 @@ public final class LBPolicyFactory {
 	public static ProvidersManager createRoundRobinPolicy(int maxProviders) {
 		return new RoundRobinPolicy(maxProviders);
 	}
+
+	/**
+	 * Round robin policy that scales with the number of threads, at the price of
+	 * a bounded skew: each provider may receive up to one request per stripe more
+	 * than with {@link #createRoundRobinPolicy(int)}.
+	 * 
+	 * @param stripes Number of stripes, typically the number of cores.
+	 */
+	public static ProvidersManager createShardedRoundRobinPolicy(int maxProviders, int stripes) {
+		return new ShardedRoundRobinPolicy(maxProviders, stripes);
+	}
+
+	/** Sharded round robin policy with one stripe per core. */
+	public static ProvidersManager createShardedRoundRobinPolicy(int maxProviders) {
+		return new ShardedRoundRobinPolicy(maxProviders);
+	}
+
+	/** Policy choosing the provider with the fewest pending requests. */
+	public static ProvidersManager createLeastConnectionsPolicy(int maxProviders) {
+		return new LeastConnectionsPolicy(maxProviders);
+	}
+
+	/**
+	 * Policy sampling two random providers and choosing the one with the fewest
+	 * pending requests.
+	 */
+	public static ProvidersManager createPowerOfTwoChoicesPolicy(int maxProviders) {
+		return new PowerOfChoicesPolicy(maxProviders);
+	}
+
+	/**
+	 * Policy sampling d random providers and choosing the one with the fewest
+	 * pending requests.
+	 * 
+	 * @param choices The number of sampled providers, at least 2.
+	 */
+	public static ProvidersManager createPowerOfChoicesPolicy(int maxProviders, int choices) {
+		return new PowerOfChoicesPolicy(maxProviders, choices);
+	}
+
+	/**
+	 * Smooth weighted round robin policy, where each provider gets a share of the
+	 * requests proportional to its weight.
+	 */
+	public static ProvidersManager createWeightedRoundRobinPolicy(int maxProviders) {
+		return new WeightedRoundRobinPolicy(maxProviders);
+	}
+
+	/**
+	 * Smooth weighted round robin policy.
+	 * 
+	 * @param scheduleTable true to precompute the sequence of providers whenever
+	 *                      the providers or their weights change, so that each
+	 *                      selection costs O(1) instead of O(n).
+	 */
+	public static ProvidersManager createWeightedRoundRobinPolicy(int maxProviders, boolean scheduleTable) {
+		return new WeightedRoundRobinPolicy(maxProviders, scheduleTable);
+	}
+
+	/**
+	 * Consistent hashing policy, routing the requests with the same key to the
+	 * same provider. Disabling a provider only remaps the keys it was serving.
+	 */
+	public static ProvidersManager createConsistentHashPolicy(int maxProviders) {
+		return new ConsistentHashPolicy(maxProviders);
+	}
+
+	/**
+	 * Consistent hashing policy.
+	 * 
+	 * @param virtualNodes The number of virtual nodes of each provider on the
+	 *                     ring.
+	 */
+	public static ProvidersManager createConsistentHashPolicy(int maxProviders, int virtualNodes) {
+		return new ConsistentHashPolicy(maxProviders, virtualNodes);
+	}
+
+	/**
+	 * Consistent hashing policy with bounded loads: no provider gets more than
+	 * 25% above the average number of requests in flight, hot keys spill over to
+	 * the next providers on the ring.
+	 */
+	public static ProvidersManager createBoundedLoadConsistentHashPolicy(int maxProviders) {
+		return new BoundedLoadConsistentHashPolicy(maxProviders);
+	}
+
+	/**
+	 * Consistent hashing policy with bounded loads.
+	 * 
+	 * @param epsilon The load slack: a provider may have up to (1 + epsilon) times
+	 *                the average number of requests in flight.
+	 */
+	public static ProvidersManager createBoundedLoadConsistentHashPolicy(int maxProviders, double epsilon) {
+		return new BoundedLoadConsistentHashPolicy(maxProviders, ConsistentHashPolicy.DEFAULT_VIRTUAL_NODES,
+				epsilon);
+	}
+
+	/**
+	 * Latency aware policy: samples two random providers and chooses the one with
+	 * the lowest moving average of latency times pending requests.
+	 */
+	public static ProvidersManager createPeakEwmaPolicy(int maxProviders) {
+		return new PeakEwmaPolicy(maxProviders);
+	}
+
+	/**
+	 * Latency aware policy.
+	 * 
+	 * @param decayNanos The decay time of the moving averages.
+	 */
+	public static ProvidersManager createPeakEwmaPolicy(int maxProviders, long decayNanos) {
+		return new PeakEwmaPolicy(maxProviders, decayNanos);
+	}
 }
@@ -0,0 +1,60 @@
+package org.lb.policies;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.lb.ProvidersManager;
+import org.lb.provider.Provider;
+
+/**
+ * Least outstanding requests policy: chooses the enabled provider with the
+ * smallest number of pending requests (see {@link Provider#getPending()}).
+ * <p>
+ * The scan starts from a random provider, so ties are broken randomly and
+ * idle providers share the traffic. The scan does not take any lock: the
+ * pending counters may change while scanning, which at most leads to a
+ * slightly suboptimal choice.
+ * <p>
+ * Scanning all providers is cheap for small sets. For sets larger than
+ * {@link #MAX_SCAN} only {@link #MAX_SCAN} consecutive providers are scanned,
+ * which keeps the selection O(1) while still avoiding busy providers.
+ */
+class LeastConnectionsPolicy extends ProvidersManager implements LBPolicy {
+
+	/** Maximum number of providers scanned by each selection. */
+	static final int MAX_SCAN = 16;
+
+	public LeastConnectionsPolicy(int maxProviders) {
+		super(maxProviders);
+		logger.info("Using least connections policy");
+	}
+
+	@Override
+	public Provider selectProvider() {
+		final Provider[] enabled = super.enabledSnapshot();
+		final int size = enabled.length;
+		if (size == 0) {
+			return null;
+		}
+		if (size == 1) {
+			return enabled[0];
+		}
+
+		final int scan = Math.min(size, MAX_SCAN);
+		int index = ThreadLocalRandom.current().nextInt(size);
+		Provider best = enabled[index];
+		int bestPending = best.getPending();
+		for (int i = 1; i < scan && bestPending > 0; i++) {
+			if (++index == size) {
+				index = 0;
+			}
+			final Provider candidate = enabled[index];
+			final int pending = candidate.getPending();
+			if (pending < bestPending) {
+				best = candidate;
+				bestPending = pending;
+			}
+		}
+		return best;
+	}
+
+}
@@ -0,0 +1,200 @@
+package org.lb.policies;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.lb.ProvidersManager;
+import org.lb.provider.Provider;
+
+/**
+ * Latency aware policy ("peak EWMA", as in Finagle and Linkerd).
+ * <p>
+ * The load balancer measures the time each provider takes to serve a request,
+ * and this policy keeps an exponentially weighted moving average of it per
+ * provider. The average decays with time rather than with the number of
+ * requests, and jumps to any sample above it, so that a provider slowing down
+ * is avoided at once while a provider recovering is trusted again gradually.
+ * <p>
+ * The cost of a provider is its average latency times its pending requests
+ * plus one. Two distinct providers are sampled at random and the cheapest one
+ * is chosen, as in {@link PowerOfChoicesPolicy}. A provider without any sample
+ * yet is free while idle, and very expensive once busy, so that a new slow
+ * provider is not flooded before its first response.
+ * <p>
+ * The average and the time of its last update are kept in a single atomic
+ * word, updated with compare-and-set: recording a sample does not take any
+ * lock nor allocate.
+ */
+class PeakEwmaPolicy extends ProvidersManager implements LBPolicy {
+
+	/** Default decay time, 10 seconds. */
+	static final long DEFAULT_DECAY_NANOS = 10_000_000_000L;
+
+	/** Cost of a busy provider without any sample. */
+	private static final double PENALTY = 1e15;
+
+	/** Time unit of the timestamps, 1024 nanoseconds. */
+	private static final int TIME_SHIFT = 10;
+
+	/**
+	 * Moving average of the latency of a provider. The word holds the average in
+	 * nanoseconds, as a float, in the upper 32 bits, and the time of the last
+	 * update in the lower 32 bits. The timestamps wrap around every 73 minutes:
+	 * a provider without any request for that long may look more recent than it
+	 * is, which only delays the decay of its average.
+	 */
+	static final class Ewma {
+
+		private final AtomicLong word;
+
+		Ewma() {
+			this.word = new AtomicLong(pack(0.0, now()));
+		}
+
+		private static int now() {
+			return (int) (System.nanoTime() >>> TIME_SHIFT);
+		}
+
+		private static long pack(double value, int time) {
+			return ((long) Float.floatToRawIntBits((float) value) << 32) | (time & 0xFFFFFFFFL);
+		}
+
+		private static double value(long word) {
+			return Float.intBitsToFloat((int) (word >>> 32));
+		}
+
+		private static double weight(long word, int now, double decayNanos) {
+			final int elapsed = Math.max(0, now - (int) word);
+			return Math.exp(-((double) elapsed * (1 << TIME_SHIFT)) / decayNanos);
+		}
+
+		/** Record a sample. */
+		void update(long latencyNanos, double decayNanos) {
+			final int now = now();
+			long cur;
+			long next;
+			do {
+				cur = this.word.get();
+				final double value = value(cur);
+				if (latencyNanos > value) {
+					// peak: follow slowdowns immediately
+					next = pack(latencyNanos, now);
+				} else {
+					final double w = weight(cur, now, decayNanos);
+					next = pack(value * w + latencyNanos * (1.0 - w), now);
+				}
+			} while (!this.word.compareAndSet(cur, next));
+		}
+
+		/** Get the average, decayed since the last sample. */
+		double get(double decayNanos) {
+			final long cur = this.word.get();
+			return value(cur) * weight(cur, now(), decayNanos);
+		}
+	}
+
+	/** The enabled providers and their averages, at the same index. */
+	private static final class State {
+
+		private final Provider[] providers;
+
+		private final Ewma[] ewmas;
+
+		State(Provider[] providers, Ewma[] ewmas) {
+			this.providers = providers;
+			this.ewmas = ewmas;
+		}
+	}
+
+	private final double decayNanos;
+
+	/** Averages of all the providers, kept while they are disabled. */
+	private final Map<Provider, Ewma> ewmas;
+
+	private volatile State state;
+
+	public PeakEwmaPolicy(int maxProviders) {
+		this(maxProviders, DEFAULT_DECAY_NANOS);
+	}
+
+	/**
+	 * @param decayNanos The decay time of the averages: a sample weighs 1/e
+	 *                   after that time.
+	 * @throws IllegalArgumentException If decayNanos <= 0.
+	 */
+	PeakEwmaPolicy(int maxProviders, long decayNanos) {
+		super(maxProviders);
+		if (decayNanos < 1L) {
+			throw new IllegalArgumentException("decayNanos must be positive");
+		}
+		this.decayNanos = decayNanos;
+		ewmas = new ConcurrentHashMap<>();
+		state = new State(enabledSnapshot(), new Ewma[0]);
+		logger.info("Using peak EWMA policy, decay (ns): " + decayNanos);
+	}
+
+	private Ewma ewma(Provider provider) {
+		Ewma ewma = this.ewmas.get(provider);
+		if (ewma == null) {
+			ewma = this.ewmas.computeIfAbsent(provider, x -> new Ewma());
+		}
+		return ewma;
+	}
+
+	@Override
+	protected void onEnabledProvidersChanged(Provider[] enabled) {
+		final Ewma[] ewmas = new Ewma[enabled.length];
+		for (int i = 0; i < enabled.length; i++) {
+			ewmas[i] = ewma(enabled[i]);
+		}
+		this.state = new State(enabled, ewmas);
+	}
+
+	@Override
+	protected void onDeregistered(Provider provider) {
+		this.ewmas.remove(provider);
+	}
+
+	@Override
+	protected void onReleased(Provider provider, long latencyNanos) {
+		// all the enabled providers have an average, unless deregistered since
+		final Ewma ewma = this.ewmas.get(provider);
+		if (ewma != null) {
+			ewma.update(latencyNanos, this.decayNanos);
+		}
+	}
+
+	/** Get the cost of a provider: its average latency times its load. */
+	private double cost(State state, int index) {
+		final double latency = state.ewmas[index].get(this.decayNanos);
+		final int pending = state.providers[index].getPending();
+		if (latency == 0.0 && pending > 0) {
+			// busy and no idea about how slow
+			return PENALTY + pending;
+		}
+		return latency * (pending + 1);
+	}
+
+	@Override
+	public Provider selectProvider() {
+		final State state = this.state;
+		final int size = state.providers.length;
+		if (size == 0) {
+			return null;
+		}
+		if (size == 1) {
+			return state.providers[0];
+		}
+
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final int a = random.nextInt(size);
+		int b = random.nextInt(size - 1);
+		if (b >= a) {
+			b++; // distinct from the first one
+		}
+		return cost(state, a) <= cost(state, b) ? state.providers[a] : state.providers[b];
+	}
+
+}
@@ -0,0 +1,66 @@
+package org.lb.policies;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.lb.ProvidersManager;
+import org.lb.provider.Provider;
+
+/**
+ * Power of d choices policy: samples d enabled providers at random and chooses
+ * the one with the fewest pending requests (see {@link Provider#getPending()}).
+ * <p>
+ * With d = 2 the maximum load is exponentially better than with
+ * {@link RandomPolicy}, at almost the same cost: the selection reads d pending
+ * counters regardless of the number of providers, and takes no lock.
+ */
+class PowerOfChoicesPolicy extends ProvidersManager implements LBPolicy {
+
+	/** Number of sampled providers. */
+	private final int choices;
+
+	public PowerOfChoicesPolicy(int maxProviders) {
+		this(maxProviders, 2);
+	}
+
+	/**
+	 * @param choices Number of sampled providers, at least 2.
+	 */
+	PowerOfChoicesPolicy(int maxProviders, int choices) {
+		super(maxProviders);
+		if (choices < 2) {
+			throw new IllegalArgumentException("choices must be at least 2");
+		}
+		this.choices = choices;
+		logger.info("Using power of " + choices + " choices policy");
+	}
+
+	@Override
+	public Provider selectProvider() {
+		final Provider[] enabled = super.enabledSnapshot();
+		final int size = enabled.length;
+		if (size == 0) {
+			return null;
+		}
+		if (size == 1) {
+			return enabled[0];
+		}
+
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		// the first two samples are always distinct
+		final int first = random.nextInt(size);
+		int second = random.nextInt(size - 1);
+		if (second >= first) {
+			second++;
+		}
+		Provider best = lessLoaded(enabled[first], enabled[second]);
+		for (int i = 2; i < this.choices; i++) {
+			best = lessLoaded(best, enabled[random.nextInt(size)]);
+		}
+		return best;
+	}
+
+	private static Provider lessLoaded(Provider p1, Provider p2) {
+		return p2.getPending() < p1.getPending() ? p2 : p1;
+	}
+
+}
@@ -1,6 +1,5 @@
 package org.lb.policies;
 
-import java.util.Optional;
 import java.util.concurrent.ThreadLocalRandom;
 
 import org.lb.ProvidersManager;
@@ -23,17 +22,12 @@ class RandomPolicy extends ProvidersManager implements LBPolicy {
 	}
 
 	@Override
-    public Optional<Provider> getProvider() {
-		super.enabledLock.readLock().lock();
-		try {
-			final int enabled = super.enabledProviders();
-			if (enabled > 0) {
-				int index = ThreadLocalRandom.current().nextInt(enabled);
-				return Optional.of(super.enabled.get(index));
-			}
-			return Optional.empty();
-		} finally {
-			super.enabledLock.readLock().unlock();
+    public Provider selectProvider() {
+		final Provider[] enabled = super.enabledSnapshot();
+		if (enabled.length > 0) {
+			int index = ThreadLocalRandom.current().nextInt(enabled.length);
+			return enabled[index];
 		}
+		return null;
     }
 }
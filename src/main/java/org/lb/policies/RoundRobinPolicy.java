@@ -1,6 +1,5 @@
 package org.lb.policies;
 
-import java.util.Optional;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.lb.ProvidersManager;
@@ -20,19 +19,13 @@ class RoundRobinPolicy extends ProvidersManager implements LBPolicy {
 	}
 
 	@Override
-	public Optional<Provider> getProvider() {
-		super.enabledLock.readLock().lock();
-		try {
-			final int enabled = super.enabledProviders();
-			if (enabled > 0) {
-				int index = (int) (this.counter.incrementAndGet() % enabled);
-				var provider = super.enabled.get(index);
-				return Optional.of(provider);
-			}
-			return Optional.empty();
-		} finally {
-			super.enabledLock.readLock().unlock();
+	public Provider selectProvider() {
+		final Provider[] enabled = super.enabledSnapshot();
+		if (enabled.length > 0) {
+			int index = (int) (this.counter.incrementAndGet() % enabled.length);
+			return enabled[index];
 		}
+		return null;
 	}
 
 }
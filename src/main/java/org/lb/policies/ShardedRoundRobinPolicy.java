@@ -0,0 +1,59 @@
+package org.lb.policies;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.lb.ProvidersManager;
+import org.lb.Stripes;
+import org.lb.provider.Provider;
+
+/**
+ * Round robin policy where the counter is split into stripes.
+ * <p>
+ * Each thread is mapped to a stripe, and each stripe does round robin on its
+ * own, starting from a different provider. Threads mapped to different stripes
+ * do not contend, while within each stripe the number of requests sent to each
+ * provider differs by at most one. Therefore, the aggregate distribution
+ * differs from perfect round robin by at most the number of stripes.
+ */
+class ShardedRoundRobinPolicy extends ProvidersManager implements LBPolicy {
+
+	/** Number of stripes, a power of 2. */
+	private final int stripes;
+
+	private final AtomicLongArray counters;
+
+	public ShardedRoundRobinPolicy(int maxProviders) {
+		this(maxProviders, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param stripes Number of stripes, rounded up to the next power of 2.
+	 */
+	ShardedRoundRobinPolicy(int maxProviders, int stripes) {
+		super(maxProviders);
+		this.stripes = Stripes.count(stripes);
+		// one padding slot at the beginning as well
+		counters = new AtomicLongArray((this.stripes + 1) * Stripes.STRIDE);
+		for (int i = 0; i < this.stripes; i++) {
+			// stagger the stripes so that they start from different providers
+			counters.set(slot(i), i);
+		}
+		logger.info("Using sharded round robin policy, stripes: " + this.stripes);
+	}
+
+	private static int slot(int stripe) {
+		return (stripe + 1) * Stripes.STRIDE;
+	}
+
+	@Override
+	public Provider selectProvider() {
+		final Provider[] enabled = super.enabledSnapshot();
+		if (enabled.length > 0) {
+			long next = this.counters.getAndIncrement(slot(Stripes.current(this.stripes)));
+			int index = (int) ((next & Long.MAX_VALUE) % enabled.length);
+			return enabled[index];
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,168 @@
+package org.lb.policies;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+
+import org.lb.ProvidersManager;
+import org.lb.log.LogEvent;
+import org.lb.provider.Provider;
+
+/**
+ * Smooth weighted round robin policy, as in nginx.
+ * <p>
+ * Each provider has a current weight, initially 0. For each request, every
+ * current weight is increased by the weight of its provider, the provider with
+ * the highest current weight is chosen, and its current weight is decreased by
+ * the total weight. With weights 5, 1, 1 this yields a a b a c a a: the heavy
+ * provider gets its share without receiving bursts of requests.
+ * <p>
+ * The current weights are only updated with atomic additions, so the selection
+ * never blocks. Concurrent selections may interleave and choose the same
+ * provider, but the current weights always sum to 0 once they complete, which
+ * bounds the skew. The weights are read at each selection, so changing them
+ * takes effect immediately. Each selection costs O(n).
+ * <p>
+ * With the schedule table option, the sequence of one period (the total weight
+ * divided by the greatest common divisor of the weights) is precomputed
+ * whenever the enabled providers or their weights change through the load
+ * balancer, and each selection costs O(1) like {@link RoundRobinPolicy}.
+ * Weights changed directly on the providers are only taken into account when
+ * the table is rebuilt. If the period exceeds {@link #MAX_SCHEDULE_SIZE}, the
+ * policy falls back to the current weights.
+ */
+class WeightedRoundRobinPolicy extends ProvidersManager implements LBPolicy {
+
+	/** Maximum length of the schedule table. */
+	static final int MAX_SCHEDULE_SIZE = 1 << 16;
+
+	private static final LogEvent LOG_SCHEDULE_TOO_LARGE = new LogEvent(WeightedRoundRobinPolicy.class,
+			Level.WARNING, "Schedule table too large: {0,number,#}, using the current weights");
+
+	/** Providers and current weights, replaced when the providers change. */
+	private static final class State {
+
+		private final Provider[] providers;
+
+		/** The current weights, if there is no schedule. */
+		private final AtomicLongArray current;
+
+		/** One period of the sequence, or null. */
+		private final Provider[] schedule;
+
+		State(Provider[] providers, Provider[] schedule) {
+			this.providers = providers;
+			this.current = new AtomicLongArray(providers.length);
+			this.schedule = schedule;
+		}
+	}
+
+	private final boolean scheduleTable;
+
+	private final AtomicLong counter;
+
+	private volatile State state;
+
+	public WeightedRoundRobinPolicy(int maxProviders) {
+		this(maxProviders, false);
+	}
+
+	/**
+	 * @param scheduleTable true to precompute the sequence of providers.
+	 */
+	WeightedRoundRobinPolicy(int maxProviders, boolean scheduleTable) {
+		super(maxProviders);
+		this.scheduleTable = scheduleTable;
+		counter = new AtomicLong(0L);
+		state = new State(enabledSnapshot(), null);
+		logger.info("Using smooth weighted round robin policy, schedule table: " + scheduleTable);
+	}
+
+	@Override
+	protected void onEnabledProvidersChanged(Provider[] enabled) {
+		this.state = new State(enabled, this.scheduleTable ? schedule(enabled) : null);
+	}
+
+	/**
+	 * Compute one period of the smooth weighted round robin sequence.
+	 *
+	 * @return The sequence, or null if too long.
+	 */
+	static Provider[] schedule(Provider[] providers) {
+		if (providers.length == 0) {
+			return null;
+		}
+		final int[] weights = new int[providers.length];
+		int gcd = 0;
+		for (int i = 0; i < providers.length; i++) {
+			weights[i] = providers[i].getWeight();
+			gcd = gcd(gcd, weights[i]);
+		}
+		long total = 0L;
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] /= gcd;
+			total += weights[i];
+		}
+		if (total > MAX_SCHEDULE_SIZE) {
+			LOG_SCHEDULE_TOO_LARGE.log(total);
+			return null;
+		}
+
+		final Provider[] schedule = new Provider[(int) total];
+		final long[] current = new long[providers.length];
+		for (int n = 0; n < schedule.length; n++) {
+			int best = 0;
+			for (int i = 0; i < current.length; i++) {
+				current[i] += weights[i];
+				if (current[i] > current[best]) {
+					best = i;
+				}
+			}
+			current[best] -= total;
+			schedule[n] = providers[best];
+		}
+		return schedule;
+	}
+
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	@Override
+	public Provider selectProvider() {
+		final State state = this.state;
+		final Provider[] schedule = state.schedule;
+		if (schedule != null) {
+			return schedule[(int) (this.counter.getAndIncrement() % schedule.length)];
+		}
+
+		final Provider[] providers = state.providers;
+		if (providers.length == 0) {
+			return null;
+		}
+		if (providers.length == 1) {
+			return providers[0];
+		}
+		final AtomicLongArray current = state.current;
+		long total = 0L;
+		int best = 0;
+		long bestCurrent = Long.MIN_VALUE;
+		for (int i = 0; i < providers.length; i++) {
+			final int weight = providers[i].getWeight();
+			total += weight;
+			final long c = current.addAndGet(i, weight);
+			if (c > bestCurrent) {
+				best = i;
+				bestCurrent = c;
+			}
+		}
+		current.addAndGet(best, -total);
+		return providers[best];
+	}
+
+}
@@ -0,0 +1,226 @@
+package org.lb.provider;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker protecting a provider failing under load.
+ * <ul>
+ * <li>closed: all requests are let through. After a number of consecutive
+ * failures, the breaker opens.</li>
+ * <li>open: no request is let through. Once the open period has elapsed, the
+ * breaker becomes half-open.</li>
+ * <li>half-open: only a bounded number of trial requests are let through. If
+ * they all succeed the breaker closes, as soon as one fails it opens
+ * again.</li>
+ * </ul>
+ * The whole state lives in a single atomic word, so that letting a request
+ * through a closed breaker costs one volatile read. The word is laid out as
+ * follows:
+ * <ul>
+ * <li>bits 0-1: the state</li>
+ * <li>bits 2-16: consecutive failures (closed) or admitted trials
+ * (half-open)</li>
+ * <li>bits 17-31: successful trials (half-open)</li>
+ * <li>bits 32-63: the time the breaker opened, in milliseconds (open)</li>
+ * </ul>
+ * This complements the heartbeat, which only disables a provider failing its
+ * health checks: the load balancer ejects a provider as soon as its breaker
+ * opens.
+ */
+public final class CircuitBreaker {
+
+	/** The states of a circuit breaker. */
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	/** Default number of consecutive failures opening the breaker. */
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+	/** Default time the breaker stays open. */
+	public static final long DEFAULT_OPEN_MILLIS = 1_000L;
+
+	/** Default number of trial requests in half-open state. */
+	public static final int DEFAULT_HALF_OPEN_TRIALS = 3;
+
+	/** Maximum value of the counters. */
+	static final int MAX_COUNT = (1 << 15) - 1;
+
+	private static final long CLOSED = 0L;
+	private static final long OPEN = 1L;
+	private static final long HALF_OPEN = 2L;
+	private static final long STATE_MASK = 3L;
+
+	private static final int FIRST_SHIFT = 2;
+	private static final int SECOND_SHIFT = 17;
+	private static final int TIME_SHIFT = 32;
+
+	private final int failureThreshold;
+
+	private final int openMillis;
+
+	private final int halfOpenTrials;
+
+	private final AtomicLong state;
+
+	public CircuitBreaker() {
+		this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS, DEFAULT_HALF_OPEN_TRIALS);
+	}
+
+	/**
+	 * @param failureThreshold Number of consecutive failures opening the breaker.
+	 * @param openMillis       Time the breaker stays open, in milliseconds.
+	 * @param halfOpenTrials   Number of trial requests in half-open state.
+	 * @throws IllegalArgumentException If any argument is out of range.
+	 */
+	public CircuitBreaker(int failureThreshold, long openMillis, int halfOpenTrials) {
+		if (failureThreshold < 1 || failureThreshold > MAX_COUNT) {
+			throw new IllegalArgumentException("failureThreshold must be in [1, " + MAX_COUNT + "]");
+		}
+		if (openMillis < 0L || openMillis > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("openMillis must be in [0, " + Integer.MAX_VALUE + "]");
+		}
+		if (halfOpenTrials < 1 || halfOpenTrials > MAX_COUNT) {
+			throw new IllegalArgumentException("halfOpenTrials must be in [1, " + MAX_COUNT + "]");
+		}
+		this.failureThreshold = failureThreshold;
+		this.openMillis = (int) openMillis;
+		this.halfOpenTrials = halfOpenTrials;
+		this.state = new AtomicLong(CLOSED);
+	}
+
+	private static long word(long state, int first, int second, int time) {
+		return state | ((long) first << FIRST_SHIFT) | ((long) second << SECOND_SHIFT)
+				| ((long) time << TIME_SHIFT);
+	}
+
+	private static int first(long word) {
+		return (int) (word >>> FIRST_SHIFT) & MAX_COUNT;
+	}
+
+	private static int second(long word) {
+		return (int) (word >>> SECOND_SHIFT) & MAX_COUNT;
+	}
+
+	private static int time(long word) {
+		return (int) (word >>> TIME_SHIFT);
+	}
+
+	/** Current time in milliseconds, wrapping around every 49 days. */
+	private static int now() {
+		return (int) (System.nanoTime() / 1_000_000L);
+	}
+
+	/**
+	 * Ask for a permit before sending a request to the provider. The outcome of
+	 * the request must then be reported with {@link #onSuccess()} or
+	 * {@link #onFailure()}, or the permit given back with {@link #release()} if
+	 * the request was not sent.
+	 *
+	 * @return true if the request can be sent, false otherwise.
+	 */
+	public boolean tryAcquire() {
+		long cur = this.state.get();
+		if ((cur & STATE_MASK) == CLOSED) {
+			return true;
+		}
+		while (true) {
+			final long next;
+			if ((cur & STATE_MASK) == OPEN) {
+				if (now() - time(cur) < this.openMillis) {
+					return false;
+				}
+				// open period elapsed, this request is the first trial
+				next = word(HALF_OPEN, 1, 0, 0);
+			} else if ((cur & STATE_MASK) == HALF_OPEN) {
+				final int trials = first(cur);
+				if (trials >= this.halfOpenTrials) {
+					return false;
+				}
+				next = word(HALF_OPEN, trials + 1, second(cur), 0);
+			} else {
+				return true;
+			}
+			if (this.state.compareAndSet(cur, next)) {
+				return true;
+			}
+			cur = this.state.get();
+		}
+	}
+
+	/** Give back a permit for a request that was not sent. */
+	public void release() {
+		long cur;
+		do {
+			cur = this.state.get();
+			if ((cur & STATE_MASK) != HALF_OPEN || first(cur) == 0) {
+				return;
+			}
+		} while (!this.state.compareAndSet(cur, word(HALF_OPEN, first(cur) - 1, second(cur), 0)));
+	}
+
+	/** Report a request served successfully. */
+	public void onSuccess() {
+		long cur;
+		long next;
+		do {
+			cur = this.state.get();
+			if ((cur & STATE_MASK) == CLOSED) {
+				if (first(cur) == 0) {
+					// common case, no write
+					return;
+				}
+				next = CLOSED;
+			} else if ((cur & STATE_MASK) == HALF_OPEN) {
+				final int successes = second(cur) + 1;
+				next = successes >= this.halfOpenTrials ? CLOSED : word(HALF_OPEN, first(cur), successes, 0);
+			} else {
+				// late outcome of a request sent before the breaker opened
+				return;
+			}
+		} while (!this.state.compareAndSet(cur, next));
+	}
+
+	/**
+	 * Report a failed request.
+	 * 
+	 * @return true if this failure opened the breaker, false otherwise.
+	 */
+	public boolean onFailure() {
+		long cur;
+		long next;
+		do {
+			cur = this.state.get();
+			if ((cur & STATE_MASK) == CLOSED) {
+				final int failures = first(cur) + 1;
+				next = failures >= this.failureThreshold ? word(OPEN, 0, 0, now()) : word(CLOSED, failures, 0, 0);
+			} else if ((cur & STATE_MASK) == HALF_OPEN) {
+				// a trial failed, open again
+				next = word(OPEN, 0, 0, now());
+			} else {
+				return false;
+			}
+		} while (!this.state.compareAndSet(cur, next));
+		return (next & STATE_MASK) == OPEN;
+	}
+
+	/**
+	 * Get the current state. An open breaker is reported as open until a request
+	 * asks for a permit after the open period.
+	 */
+	public State getState() {
+		final long cur = this.state.get();
+		if ((cur & STATE_MASK) == OPEN) {
+			return State.OPEN;
+		}
+		if ((cur & STATE_MASK) == HALF_OPEN) {
+			return State.HALF_OPEN;
+		}
+		return State.CLOSED;
+	}
+
+	@Override
+	public String toString() {
+		return getState().toString();
+	}
+}
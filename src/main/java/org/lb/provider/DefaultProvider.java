@@ -3,17 +3,32 @@ package org.lb.provider;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.logging.Logger;
+import java.util.logging.Level;
+
+import org.lb.log.LogEvent;
 
 /**
  * Default provider
  */
 public class DefaultProvider implements Provider {
 
-	private static Logger logger = Logger.getLogger(DefaultProvider.class.getName());
+	private static final LogEvent LOG_ENABLED = new LogEvent(DefaultProvider.class, Level.INFO,
+			"Enabled provider {0,number,#}");
+
+	private static final LogEvent LOG_DISABLED = new LogEvent(DefaultProvider.class, Level.WARNING,
+			"Disabled provider {0,number,#}");
+
+	private static final LogEvent LOG_INCLUDED = new LogEvent(DefaultProvider.class, Level.INFO,
+			"Provider {0,number,#} included: {1,choice,0#false|1#true}");
+
+	private static final LogEvent LOG_WEIGHT = new LogEvent(DefaultProvider.class, Level.INFO,
+			"Provider {0,number,#} weight: {1,number,#}");
 
 	private static final int HEARTBEATS_OK = 2;
 
+	/** Weight of the providers, unless changed. */
+	public static final int DEFAULT_WEIGHT = 1;
+
 	private static AtomicInteger counter = new AtomicInteger();
 
 	/** Provider id. */
@@ -27,11 +42,24 @@ public class DefaultProvider implements Provider {
 	/** Number of handled requests. */
 	private AtomicLong requests;
 
+	/** Number of requests being served. */
+	private AtomicInteger pending;
+
+	/** Maximum number of requests that can be served concurrently. */
+	private final int capacity;
+
+	/** Share of the traffic with weighted policies, may change at runtime. */
+	private volatile int weight;
+
+	/** Stops the traffic to this provider when it fails under load. */
+	private final CircuitBreaker circuitBreaker;
+
 	/**
 	 * When the provider is enabled this field is set to 3. It only matters after
-	 * the transition off -> on
+	 * the transition off -> on. Volatile as the load balancer may disable this
+	 * provider from a request thread.
 	 */
-	private int okChecksAfterFailure;
+	private volatile int okChecksAfterFailure;
 
 	/** true if this provider is included, false if it has been taken offline. */
 	private volatile boolean included;
@@ -41,10 +69,38 @@ public class DefaultProvider implements Provider {
 	}
 
 	public DefaultProvider(int id) {
+		this(id, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param capacity Maximum number of requests that can be served concurrently.
+	 * @throws IllegalArgumentException If capacity <= 0.
+	 */
+	public DefaultProvider(int id, int capacity) {
+		this(id, capacity, new CircuitBreaker());
+	}
+
+	/**
+	 * @param capacity       Maximum number of requests that can be served
+	 *                       concurrently.
+	 * @param circuitBreaker The circuit breaker of this provider.
+	 * @throws IllegalArgumentException If capacity <= 0.
+	 */
+	public DefaultProvider(int id, int capacity, CircuitBreaker circuitBreaker) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		if (circuitBreaker == null) {
+			throw new NullPointerException("Null circuit breaker");
+		}
 		this.id = id;
+		this.capacity = capacity;
+		this.circuitBreaker = circuitBreaker;
+		weight = DEFAULT_WEIGHT;
 		msg = "provider_" + this.id;
 		enabled = new AtomicBoolean(true);
 		requests = new AtomicLong(0L);
+		pending = new AtomicInteger();
 		okChecksAfterFailure = HEARTBEATS_OK + 1;
 		included = true;
 	}
@@ -86,7 +142,8 @@ public class DefaultProvider implements Provider {
 		 */
 		if (this.okChecksAfterFailure >= HEARTBEATS_OK - 1) {
 			this.enabled.set(true);
-			logger.info("Enabled provider " + getId());
+			ProviderStateEvent.commit(this.id, true);
+			LOG_ENABLED.log(getId());
 			return true;
 		} else {
 			this.okChecksAfterFailure++;
@@ -96,9 +153,11 @@ public class DefaultProvider implements Provider {
 
 	@Override
 	public boolean disable() {
-		this.enabled.set(false);
+		if (this.enabled.getAndSet(false)) {
+			ProviderStateEvent.commit(this.id, false);
+			LOG_DISABLED.log(getId());
+		}
 		this.okChecksAfterFailure = 0;
-		logger.warning("Disabled provider " + getId());
 		return true;
 	}
 
@@ -124,7 +183,7 @@ public class DefaultProvider implements Provider {
 	 */
 	public void include(boolean include) {
 		this.included = include;
-		logger.info("Provider " + this.id + " included: " + include);
+		LOG_INCLUDED.log(this.id, include ? 1L : 0L);
 	}
 
 	@Override
@@ -132,6 +191,57 @@ public class DefaultProvider implements Provider {
 		return this.requests.get();
 	}
 
+	@Override
+	public int getPending() {
+		return this.pending.get();
+	}
+
+	@Override
+	public void increasePending() {
+		this.pending.incrementAndGet();
+	}
+
+	@Override
+	public boolean tryIncreasePending(int maxPending) {
+		int cur;
+		do {
+			cur = this.pending.get();
+			if (cur >= maxPending) {
+				return false;
+			}
+		} while (!this.pending.compareAndSet(cur, cur + 1));
+		return true;
+	}
+
+	@Override
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	@Override
+	public void decreasePending() {
+		this.pending.decrementAndGet();
+	}
+
+	@Override
+	public int getWeight() {
+		return this.weight;
+	}
+
+	@Override
+	public void setWeight(int weight) {
+		if (weight < 1) {
+			throw new IllegalArgumentException("weight must be positive");
+		}
+		this.weight = weight;
+		LOG_WEIGHT.log(this.id, weight);
+	}
+
+	@Override
+	public CircuitBreaker getCircuitBreaker() {
+		return this.circuitBreaker;
+	}
+
 	@Override
 	public int hashCode() {
 		return this.id;
@@ -1,10 +1,28 @@
 package org.lb.provider;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
 public interface Provider {
 
 	/** Get the id of this provider, as string. */
 	String get();
 
+	/**
+	 * Get the id of this provider, as string, without blocking the caller.
+	 * <p>
+	 * The default implementation adapts synchronous providers: it calls
+	 * {@link #get()} on the caller's thread and returns a completed stage.
+	 * Non-blocking providers should override it.
+	 */
+	default CompletionStage<String> getAsync() {
+		try {
+			return CompletableFuture.completedFuture(get());
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
 	/** Get the id of this provider. */
 	int getId();
 
@@ -44,4 +62,49 @@ public interface Provider {
 
 	/** Get the number of handled requests. */
 	long getRequests();
+
+	/** Get the number of requests this provider is currently serving. */
+	int getPending();
+
+	/**
+	 * Get the maximum number of requests this provider can serve concurrently.
+	 * The load balancer may use a lower limit.
+	 */
+	int getCapacity();
+
+	/** Called by the load balancer before forwarding a request to this provider. */
+	void increasePending();
+
+	/**
+	 * Called by the load balancer before forwarding a request to this provider,
+	 * only succeeds if the provider is not saturated.
+	 * 
+	 * @param maxPending The maximum number of pending requests.
+	 * @return true if the number of pending requests was increased, false if it
+	 *         was already &gt;= maxPending.
+	 */
+	boolean tryIncreasePending(int maxPending);
+
+	/** Called by the load balancer once this provider has served a request. */
+	void decreasePending();
+
+	/**
+	 * Get the weight of this provider, i.e., its share of the traffic relative to
+	 * the other providers with weighted policies.
+	 */
+	int getWeight();
+
+	/**
+	 * Change the weight of this provider.
+	 * 
+	 * @param weight The new weight, at least 1.
+	 * @throws IllegalArgumentException If weight <= 0.
+	 */
+	void setWeight(int weight);
+
+	/**
+	 * Get the circuit breaker checked by the load balancer before forwarding a
+	 * request to this provider.
+	 */
+	CircuitBreaker getCircuitBreaker();
 }
@@ -0,0 +1,37 @@
+package org.lb.provider;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder event of a provider getting enabled or disabled. The
+ * transitions are rare, so the event is created and committed without any
+ * other guard than JFR's own.
+ */
+@Name("org.lb.ProviderStateChange")
+@Label("Provider State Change")
+@Description("A provider was enabled or disabled")
+@Category("Load Balancer")
+@StackTrace(false)
+final class ProviderStateEvent extends Event {
+
+	@Label("Provider Id")
+	int provider;
+
+	@Label("Enabled")
+	boolean enabled;
+
+	/** Commit an event, if enabled. */
+	static void commit(int provider, boolean enabled) {
+		final ProviderStateEvent event = new ProviderStateEvent();
+		if (event.shouldCommit()) {
+			event.provider = provider;
+			event.enabled = enabled;
+			event.commit();
+		}
+	}
+}
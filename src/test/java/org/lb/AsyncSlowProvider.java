@@ -0,0 +1,27 @@
+package org.lb;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import org.lb.provider.DefaultProvider;
+
+/**
+ * Non-blocking provider completing each request after a delay.
+ */
+public class AsyncSlowProvider extends DefaultProvider {
+
+	private final long timeoutMs;
+
+	public AsyncSlowProvider(long timeoutMs) {
+		super();
+		this.timeoutMs = timeoutMs;
+	}
+
+	@Override
+	public CompletionStage<String> getAsync() {
+		return CompletableFuture.supplyAsync(this::get,
+				CompletableFuture.delayedExecutor(this.timeoutMs, TimeUnit.MILLISECONDS));
+	}
+
+}
@@ -0,0 +1,174 @@
+package org.lb;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lb.policies.LBPolicyFactory;
+import org.lb.provider.DefaultProvider;
+import org.lb.provider.Provider;
+
+class BoundedLoadConsistentHashPolicyTest {
+
+	private static final int MAX_PROVIDERS = 10;
+
+	private static final int MAX_LOAD = 1_000_000;
+
+	private static final double EPSILON = 0.25;
+
+	private ProvidersManager policy;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		//
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		//
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		this.policy = LBPolicyFactory.createBoundedLoadConsistentHashPolicy(MAX_PROVIDERS, EPSILON);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		this.policy = null;
+	}
+
+	private static List<Provider> createProviders(int providers) {
+		List<Provider> list = new ArrayList<>();
+		for (int i = 0; i < providers; i++) {
+			list.add(new DefaultProvider());
+		}
+		return list;
+	}
+
+	@Test
+	void testWrongEpsilon() {
+		assertThrows(IllegalArgumentException.class, () -> {
+			LBPolicyFactory.createBoundedLoadConsistentHashPolicy(MAX_PROVIDERS, 0.0);
+		});
+	}
+
+	@Test
+	void testGetProvider1() {
+		assertNull(this.policy.selectProvider(1L));
+		assertTrue(this.policy.getProvider().isEmpty());
+	}
+
+	@Test
+	void testAffinityWithoutLoad() {
+		var list = createProviders(MAX_PROVIDERS);
+		var plain = LBPolicyFactory.createConsistentHashPolicy(MAX_PROVIDERS);
+		plain.setEnabledProviders(list);
+		this.policy.setEnabledProviders(list);
+
+		// same provider as plain consistent hashing, as long as it is below the bound
+		for (long key = 0; key < 10_000; key++) {
+			Provider provider = this.policy.acquireProvider(key, MAX_LOAD);
+			assertSame(plain.selectProvider(key), provider);
+			this.policy.releaseProvider(provider, 0L);
+		}
+	}
+
+	@Test
+	void testHotKey() {
+		var list = createProviders(MAX_PROVIDERS);
+		this.policy.setEnabledProviders(list);
+
+		// a single key spills over to the next providers
+		List<Provider> acquired = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			acquired.add(this.policy.acquireProvider(42L, MAX_LOAD));
+		}
+		for (Provider provider : list) {
+			assertTrue(provider.getPending() <= Math.ceil((1 + EPSILON) * 100 / MAX_PROVIDERS));
+		}
+		acquired.forEach(x -> this.policy.releaseProvider(x, 0L));
+		list.forEach(x -> assertEquals(0, x.getPending()));
+	}
+
+	/**
+	 * Zipfian key popularity: the probability of the key of rank k is
+	 * proportional to 1/k^s.
+	 */
+	private static final class Zipf {
+
+		private final double[] cdf;
+
+		Zipf(int keys, double s) {
+			this.cdf = new double[keys];
+			double sum = 0.0;
+			for (int k = 1; k <= keys; k++) {
+				sum += 1.0 / Math.pow(k, s);
+				this.cdf[k - 1] = sum;
+			}
+			for (int k = 0; k < keys; k++) {
+				this.cdf[k] /= sum;
+			}
+		}
+
+		long next(Random random) {
+			int i = Arrays.binarySearch(this.cdf, random.nextDouble());
+			return i >= 0 ? i : -i - 1;
+		}
+	}
+
+	/**
+	 * Discrete time simulation: at each step, requests with Zipfian keys arrive
+	 * and each provider serves one of its requests with some probability.
+	 * 
+	 * @return The maximum ratio between the requests in flight of a provider and
+	 *         the bound, ceil((1 + epsilon) * average), when a request is
+	 *         admitted.
+	 */
+	private static double simulate(ProvidersManager policy, int steps) {
+		final int arrivals = 9;
+		final double serviceProbability = 0.95; // load ~95%
+		var list = createProviders(MAX_PROVIDERS);
+		policy.setEnabledProviders(list);
+
+		Zipf zipf = new Zipf(10_000, 1.1);
+		Random random = new Random(42L);
+		long inFlight = 0L;
+		double max = 0.0;
+		for (int step = 0; step < steps; step++) {
+			for (int i = 0; i < arrivals; i++) {
+				Provider provider = policy.acquireProvider(zipf.next(random), MAX_LOAD);
+				inFlight++;
+				final double bound = Math.ceil((1 + EPSILON) * inFlight / MAX_PROVIDERS);
+				max = Math.max(max, provider.getPending() / bound);
+			}
+			for (Provider provider : list) {
+				if (provider.getPending() > 0 && random.nextDouble() < serviceProbability) {
+					policy.releaseProvider(provider, 0L);
+					inFlight--;
+				}
+			}
+		}
+		return max;
+	}
+
+	@Test
+	void testZipf() {
+		final int steps = 100_000;
+		double plain = simulate(LBPolicyFactory.createConsistentHashPolicy(MAX_PROVIDERS), steps);
+		double bounded = simulate(this.policy, steps);
+
+		// the hottest keys overload their providers with plain consistent hashing
+		assertTrue(plain > 2.0, "plain: " + plain);
+		assertTrue(bounded <= 1.0, "bounded: " + bounded);
+	}
+
+}
@@ -0,0 +1,160 @@
+package org.lb;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lb.policies.LBPolicyFactory;
+import org.lb.provider.DefaultProvider;
+import org.lb.provider.Provider;
+
+class ConsistentHashPolicyTest {
+
+	private static final int MAX_PROVIDERS = 10;
+
+	private static final int KEYS = 100_000;
+
+	private ProvidersManager policy;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		//
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		//
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		this.policy = LBPolicyFactory.createConsistentHashPolicy(MAX_PROVIDERS);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		this.policy = null;
+	}
+
+	private List<Provider> registerAndEnable(int providers) {
+		List<Provider> list = new ArrayList<>();
+		for (int i = 0; i < providers; i++) {
+			var provider = new DefaultProvider();
+			assertTrue(this.policy.register(provider));
+			list.add(provider);
+		}
+		this.policy.setEnabledProviders(list);
+		return list;
+	}
+
+	private Provider[] route() {
+		Provider[] res = new Provider[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			res[i] = this.policy.selectProvider(("key-" + i).hashCode());
+		}
+		return res;
+	}
+
+	@Test
+	void testWrongVirtualNodes() {
+		assertThrows(IllegalArgumentException.class, () -> {
+			LBPolicyFactory.createConsistentHashPolicy(MAX_PROVIDERS, 0);
+		});
+	}
+
+	@Test
+	void testGetProvider1() {
+		assertNull(this.policy.selectProvider(1L));
+		assertTrue(this.policy.getProvider().isEmpty());
+		// registering a provider is not enough, it must be enabled!
+		this.policy.register(new DefaultProvider());
+		assertNull(this.policy.selectProvider(1L));
+	}
+
+	@Test
+	void testAffinity() {
+		registerAndEnable(MAX_PROVIDERS);
+		Provider[] first = route();
+		assertArrayEquals(first, route());
+	}
+
+	@Test
+	void testBalance() {
+		var providers = registerAndEnable(MAX_PROVIDERS);
+		Provider[] routes = route();
+		for (Provider provider : providers) {
+			long count = 0;
+			for (Provider x : routes) {
+				if (x == provider) {
+					count++;
+				}
+			}
+			// 160 virtual nodes, within 30% of a perfect split
+			assertEquals(KEYS / MAX_PROVIDERS, count, 0.3 * KEYS / MAX_PROVIDERS);
+		}
+	}
+
+	@Test
+	void testOrderIndependent() {
+		var providers = registerAndEnable(MAX_PROVIDERS);
+		Provider[] before = route();
+		var reversed = new ArrayList<>(providers);
+		Collections.reverse(reversed);
+		this.policy.setEnabledProviders(reversed);
+		assertArrayEquals(before, route());
+	}
+
+	@Test
+	void testMinimalRemapping() {
+		var providers = registerAndEnable(MAX_PROVIDERS);
+		Provider[] before = route();
+
+		// the heartbeat disables a provider: only its keys move
+		Provider disabled = providers.get(3);
+		this.policy.updateEnabledProviders(List.of(), List.of(disabled));
+		Provider[] after = route();
+		int moved = 0;
+		for (int i = 0; i < KEYS; i++) {
+			if (before[i] != after[i]) {
+				assertSame(disabled, before[i]);
+				assertNotSame(disabled, after[i]);
+				moved++;
+			} else {
+				assertNotSame(disabled, before[i]);
+			}
+		}
+		assertEquals(KEYS / MAX_PROVIDERS, moved, 0.3 * KEYS / MAX_PROVIDERS);
+
+		// enabled again, the keys come back
+		this.policy.updateEnabledProviders(List.of(disabled), List.of());
+		assertArrayEquals(before, route());
+	}
+
+	@Test
+	void testSaturatedFallback() {
+		var providers = registerAndEnable(MAX_PROVIDERS);
+		for (int i = 0; i < 100; i++) {
+			final long key = ("key-" + i).hashCode();
+			final Provider owner = this.policy.selectProvider(key);
+			assertSame(owner, this.policy.acquireProvider(key, 1));
+
+			// the owner is saturated: the key goes to the provider following it on
+			// the ring, as if the owner was disabled
+			this.policy.updateEnabledProviders(List.of(), List.of(owner));
+			final Provider next = this.policy.selectProvider(key);
+			this.policy.setEnabledProviders(providers);
+			assertSame(next, this.policy.acquireProvider(key, 1));
+
+			this.policy.releaseProvider(next, 0L);
+			this.policy.releaseProvider(owner, 0L);
+		}
+	}
+
+}
@@ -0,0 +1,244 @@
+package org.lb;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.lb.policies.LBPolicyFactory;
+import org.lb.provider.DefaultProvider;
+import org.lb.provider.Provider;
+
+class HeartBeatCheckerTest {
+
+	private static final int MAX_PROVIDERS = 32;
+
+	private static final long HANGING_CHECK_MS = 10_000L;
+
+	private LoadBalancerImpl lb;
+
+	/** Provider whose health check hangs. */
+	private static class HangingProvider extends DefaultProvider {
+
+		@Override
+		public boolean check() {
+			try {
+				Thread.sleep(HANGING_CHECK_MS);
+			} catch (InterruptedException e) {
+				Thread.interrupted();
+			}
+			return true;
+		}
+	}
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		//
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		//
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		this.lb = new LoadBalancerImpl(1, LBPolicyFactory.createRoundRobinPolicy(MAX_PROVIDERS));
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		this.lb.stop();
+		this.lb = null;
+	}
+
+	@Test
+	void testWrongConstructor() {
+		assertThrows(IllegalArgumentException.class, () -> {
+			new HeartBeatChecker(null);
+		});
+	}
+
+	@Test
+	void testRun() {
+		var list = new ArrayList<Provider>();
+		var faulty = new FaultyProvider();
+		var excluded = new DefaultProvider();
+		excluded.include(false);
+		list.add(new DefaultProvider());
+		list.add(faulty);
+		list.add(excluded);
+		this.lb.register(list);
+
+		new HeartBeatChecker(this.lb).run();
+		assertTrue(list.get(0).isEnabled());
+		assertFalse(faulty.isEnabled());
+		assertTrue(this.lb.isEnabled(list.get(0)));
+		assertFalse(this.lb.isEnabled(faulty));
+		assertFalse(this.lb.isEnabled(excluded));
+		assertEquals(1L, this.lb.snapshot().getHeartbeats());
+		assertEquals(0L, this.lb.snapshot().getTimedOutChecks());
+	}
+
+	@Test
+	void testExclude() {
+		var provider = new DefaultProvider();
+		this.lb.register(List.of(provider));
+		new HeartBeatChecker(this.lb).run();
+		assertTrue(this.lb.isEnabled(provider));
+
+		// excluding a provider behind the load balancer's back
+		provider.include(false);
+		new HeartBeatChecker(this.lb).run();
+		assertFalse(this.lb.isEnabled(provider));
+	}
+
+	@Test
+	@Timeout(5)
+	void testHangingCheck() {
+		var list = new ArrayList<Provider>();
+		var hanging = new HangingProvider();
+		for (int i = 0; i < 3; i++) {
+			list.add(new DefaultProvider());
+		}
+		list.add(hanging);
+		this.lb.register(list);
+
+		// the hanging check does not delay the others, and counts as failed
+		final long start = System.nanoTime();
+		new HeartBeatChecker(this.lb).run();
+		final long duration = System.nanoTime() - start;
+		assertTrue(duration < HANGING_CHECK_MS * 1_000_000L);
+		assertFalse(hanging.isEnabled());
+
+		MetricsSnapshot snapshot = this.lb.snapshot();
+		assertEquals(1L, snapshot.getHeartbeats());
+		assertEquals(1L, snapshot.getTimedOutChecks());
+		assertTrue(snapshot.getLastHeartbeatNanos() >= LoadBalancerImpl.HEARTBEAT_CHECK_TIMEOUT_MS * 1_000_000L);
+		assertEquals(snapshot.getLastHeartbeatNanos(), snapshot.getMaxHeartbeatNanos());
+	}
+
+	@Test
+	@Timeout(5)
+	void testManyHangingChecks() {
+		var list = new ArrayList<Provider>();
+		for (int i = 0; i < 20; i++) {
+			list.add(new HangingProvider());
+		}
+		var healthy = new DefaultProvider();
+		list.add(healthy);
+		this.lb.register(list);
+
+		// the healthy check waits for a thread behind the hanging ones, but is not
+		// charged for it
+		final long start = System.nanoTime();
+		new HeartBeatChecker(this.lb).run();
+		final long duration = System.nanoTime() - start;
+		assertTrue(duration < 3 * LoadBalancerImpl.HEARTBEAT_CHECK_TIMEOUT_MS * 1_000_000L);
+		assertTrue(this.lb.isEnabled(healthy));
+		assertEquals(20L, this.lb.snapshot().getTimedOutChecks());
+	}
+
+	@Test
+	@Timeout(10)
+	void testAllThreadsHeld() {
+		final CountDownLatch release = new CountDownLatch(1);
+		var list = new ArrayList<Provider>();
+		for (int i = 0; i < LoadBalancerImpl.HEARTBEAT_PARALLELISM; i++) {
+			list.add(new DefaultProvider() {
+				@Override
+				public boolean check() {
+					// ignores the interruption
+					while (true) {
+						try {
+							release.await();
+							return true;
+						} catch (InterruptedException e) {
+							// ignored
+						}
+					}
+				}
+			});
+		}
+		var healthy = new DefaultProvider();
+		list.add(healthy);
+		this.lb.register(list);
+
+		// the healthy check never gets a thread, the cycle does not wait forever
+		try {
+			new HeartBeatChecker(this.lb).run();
+			assertFalse(this.lb.isEnabled(healthy));
+			assertEquals(list.size(), this.lb.snapshot().getTimedOutChecks());
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	@Timeout(10)
+	void testOverrunningCheck() throws InterruptedException {
+		var stuck = new DefaultProvider() {
+			final CountDownLatch release = new CountDownLatch(1);
+			final AtomicInteger checks = new AtomicInteger();
+
+			@Override
+			public boolean check() {
+				this.checks.incrementAndGet();
+				while (true) {
+					try {
+						this.release.await();
+						return true;
+					} catch (InterruptedException e) {
+						// ignored
+					}
+				}
+			}
+		};
+		this.lb.register(List.of(stuck));
+
+		new HeartBeatChecker(this.lb).run();
+		assertEquals(1L, this.lb.snapshot().getTimedOutChecks());
+
+		// still running, not checked again and counted as failed
+		final long start = System.nanoTime();
+		new HeartBeatChecker(this.lb).run();
+		assertTrue(System.nanoTime() - start < LoadBalancerImpl.HEARTBEAT_CHECK_TIMEOUT_MS * 1_000_000L);
+		assertEquals(1, stuck.checks.get());
+		assertEquals(2L, this.lb.snapshot().getTimedOutChecks());
+		assertFalse(this.lb.isEnabled(stuck));
+
+		// checked again once the previous check has returned
+		stuck.release.countDown();
+		while (this.lb.getRunningChecks().isEmpty() == false) {
+			Thread.sleep(10L);
+		}
+		new HeartBeatChecker(this.lb).run();
+		assertEquals(2, stuck.checks.get());
+		assertEquals(2L, this.lb.snapshot().getTimedOutChecks());
+	}
+
+	@Test
+	void testBackToBack() {
+		var list = new ArrayList<Provider>();
+		for (int i = 0; i < 10; i++) {
+			list.add(new DefaultProvider());
+		}
+		this.lb.register(list);
+
+		// a completed check is never seen as still running by the next cycle
+		for (int i = 0; i < 2_000; i++) {
+			new HeartBeatChecker(this.lb).run();
+		}
+		assertEquals(0L, this.lb.snapshot().getTimedOutChecks());
+		assertEquals(10, this.lb.enabledProviders());
+	}
+
+}
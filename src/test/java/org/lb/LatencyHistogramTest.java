@@ -0,0 +1,160 @@
+package org.lb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+	private LatencyHistogram histogram;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		//
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		//
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		this.histogram = new LatencyHistogram();
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		this.histogram = null;
+	}
+
+	@Test
+	void testWrongConstructor() {
+		assertThrows(IllegalArgumentException.class, () -> new LatencyHistogram(0));
+	}
+
+	@Test
+	void testBuckets() {
+		assertEquals(0L, LatencyHistogram.lowestValue(0));
+		for (int i = 0; i < LatencyHistogram.BUCKETS - 1; i++) {
+			final long low = LatencyHistogram.lowestValue(i);
+			final long high = LatencyHistogram.highestValue(i);
+			assertEquals(i, LatencyHistogram.bucket(low));
+			assertEquals(i, LatencyHistogram.bucket(high));
+			assertEquals(high + 1L, LatencyHistogram.lowestValue(i + 1));
+			// 6.25% precision
+			assertTrue(high - low <= low / LatencyHistogram.SUB_BUCKETS, "Bucket " + i);
+		}
+		assertEquals(0, LatencyHistogram.bucket(-1L));
+		assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+	}
+
+	@Test
+	void testEmpty() {
+		final LatencySnapshot snapshot = this.histogram.snapshot();
+		assertEquals(0L, snapshot.getCount());
+		assertEquals(0L, snapshot.getMax());
+		assertEquals(0L, snapshot.getP50());
+		assertEquals(0L, snapshot.getP999());
+	}
+
+	@Test
+	void testPercentiles() {
+		final int max = 100_000;
+		for (int i = 1; i <= max; i++) {
+			this.histogram.record(i * 1_000L);
+		}
+		final LatencySnapshot snapshot = this.histogram.snapshot();
+		assertEquals(max, snapshot.getCount());
+		assertEquals(max * 1_000L, snapshot.getMax());
+		checkPercentile(snapshot, 50.0, 50_000_000L);
+		checkPercentile(snapshot, 99.0, 99_000_000L);
+		checkPercentile(snapshot, 99.9, 99_900_000L);
+		assertEquals(snapshot.getMax(), snapshot.getValueAtPercentile(100.0));
+		checkPercentile(snapshot, 0.0, 1_000L);
+
+		assertThrows(IllegalArgumentException.class, () -> snapshot.getValueAtPercentile(-1.0));
+		assertThrows(IllegalArgumentException.class, () -> snapshot.getValueAtPercentile(100.1));
+		assertThrows(IllegalArgumentException.class, () -> snapshot.getValueAtPercentile(Double.NaN));
+	}
+
+	private static void checkPercentile(LatencySnapshot snapshot, double percentile, long expected) {
+		final long value = snapshot.getValueAtPercentile(percentile);
+		assertTrue(value >= expected, percentile + ": " + value);
+		assertTrue(value <= expected + expected / LatencyHistogram.SUB_BUCKETS, percentile + ": " + value);
+	}
+
+	@Test
+	void testOutlier() {
+		for (int i = 0; i < 999; i++) {
+			this.histogram.record(100L);
+		}
+		this.histogram.record(7_654_321L);
+		final LatencySnapshot snapshot = this.histogram.snapshot();
+		assertEquals(LatencyHistogram.highestValue(LatencyHistogram.bucket(100L)), snapshot.getP99());
+		assertEquals(7_654_321L, snapshot.getValueAtPercentile(99.95));
+		assertEquals(7_654_321L, snapshot.getMax());
+	}
+
+	@Test
+	void testConcurrentRecord() throws InterruptedException {
+		final int nThreads = 8;
+		final int records = 100_000;
+		final CountDownLatch startSignal = new CountDownLatch(1);
+		final List<Thread> threads = new ArrayList<>(nThreads);
+		for (int t = 0; t < nThreads; t++) {
+			final long value = (t + 1) * 1_000L;
+			Thread thread = new Thread(() -> {
+				try {
+					startSignal.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < records; i++) {
+					this.histogram.record(value);
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		startSignal.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// no count lost
+		final LatencySnapshot snapshot = this.histogram.snapshot();
+		assertEquals((long) nThreads * records, snapshot.getCount());
+		assertEquals(nThreads * 1_000L, snapshot.getMax());
+		checkPercentile(snapshot, 100.0 / nThreads, 1_000L);
+	}
+
+	@Test
+	void testRecordDoesNotAllocate() {
+		var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long threadId = Thread.currentThread().getId();
+		// warm up
+		for (int i = 0; i < 100_000; i++) {
+			this.histogram.record(i);
+		}
+		final int reps = 100_000;
+		final long before = threadBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < reps; i++) {
+			this.histogram.record(i * 31L);
+		}
+		final long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+		assertTrue(allocated < 1_024L, "Allocated bytes: " + allocated);
+	}
+
+}
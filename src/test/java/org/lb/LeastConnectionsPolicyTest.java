@@ -0,0 +1,156 @@
+package org.lb;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.app.Utils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.lb.policies.LBPolicyFactory;
+import org.lb.provider.DefaultProvider;
+import org.lb.provider.Provider;
+
+class LeastConnectionsPolicyTest {
+
+	private ProvidersManager policy;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		//
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		//
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		this.policy = LBPolicyFactory.createLeastConnectionsPolicy(100);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		this.policy = null;
+	}
+
+	@Test
+	void testGetProvider1() {
+		assertTrue(this.policy.getProvider().isEmpty());
+		// registering a provider is not enough, it must be enabled!
+		this.policy.register(new DefaultProvider());
+		assertTrue(this.policy.getProvider().isEmpty());
+	}
+
+	@Test
+	void testGetProvider2() {
+		var provider1 = new DefaultProvider();
+		var provider2 = new DefaultProvider();
+		var provider3 = new DefaultProvider();
+		ArrayList<Provider> list = new ArrayList<>();
+		list.add(provider1);
+		list.add(provider2);
+		list.add(provider3);
+		this.policy.setEnabledProviders(list);
+
+		provider1.increasePending();
+		provider1.increasePending();
+		provider2.increasePending();
+		for (int i = 0; i < 100; i++) {
+			assertEquals(provider3, this.policy.selectProvider());
+		}
+
+		provider3.increasePending();
+		provider3.increasePending();
+		for (int i = 0; i < 100; i++) {
+			assertEquals(provider2, this.policy.selectProvider());
+		}
+	}
+
+	@Test
+	void testTies() {
+		var provider1 = new DefaultProvider();
+		var provider2 = new DefaultProvider();
+		ArrayList<Provider> list = new ArrayList<>();
+		list.add(provider1);
+		list.add(provider2);
+		this.policy.setEnabledProviders(list);
+
+		// idle providers must share the traffic
+		final int reps = 1000;
+		int prov1 = 0;
+		for (int i = 0; i < reps; i++) {
+			if (this.policy.selectProvider() == provider1) {
+				prov1++;
+			}
+		}
+		assertTrue(prov1 > 0);
+		assertTrue(prov1 < reps);
+	}
+
+	@Test
+	void testLargeSet() {
+		ArrayList<Provider> list = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			var provider = new DefaultProvider();
+			provider.increasePending();
+			list.add(provider);
+		}
+		this.policy.setEnabledProviders(list);
+		// only one provider is idle, a busy one may be chosen when it is not scanned
+		list.get(42).decreasePending();
+
+		int idle = 0;
+		for (int i = 0; i < 1000; i++) {
+			Provider provider = this.policy.selectProvider();
+			assertNotNull(provider);
+			if (provider == list.get(42)) {
+				idle++;
+			}
+		}
+		assertTrue(idle > 0);
+	}
+
+	@Test
+	@Timeout(20)
+	void testSlowProvider() throws InterruptedException {
+		LoadBalancerImpl lb = new LoadBalancerImpl(10, this.policy);
+		var slow = new SlowProvider(100L);
+		var fast = new DefaultProvider();
+		ArrayList<Provider> list = new ArrayList<>();
+		list.add(slow);
+		list.add(fast);
+		lb.register(list);
+		lb.start();
+		lb.setEnabledProviders(list);
+
+		// run for a fixed amount of time rather than a fixed number of requests, as a
+		// thread alone would send half of its requests to the idle slow provider
+		final int nThreads = 4;
+		final long deadline = System.nanoTime() + 1_000_000_000L;
+		CountDownLatch doneSignal = new CountDownLatch(nThreads);
+		for (int i = 0; i < nThreads; i++) {
+			new Thread(() -> {
+				while (System.nanoTime() < deadline) {
+					lb.tryGet();
+				}
+				doneSignal.countDown();
+			}).start();
+		}
+		Utils.waitCompletion(doneSignal);
+		lb.stop();
+
+		// the slow provider is busy most of the time
+		assertTrue(slow.getRequests() * 10 < fast.getRequests(),
+				"slow: " + slow.getRequests() + ", fast: " + fast.getRequests());
+		assertEquals(0, slow.getPending());
+		assertEquals(0, fast.getPending());
+	}
+
+}
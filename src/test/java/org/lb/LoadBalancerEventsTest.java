@@ -0,0 +1,150 @@
+package org.lb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lb.policies.LBPolicyFactory;
+import org.lb.provider.DefaultProvider;
+import org.lb.provider.Provider;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class LoadBalancerEventsTest {
+
+	private static final String SELECTION = "org.lb.ProviderSelection";
+	private static final String REJECTION = "org.lb.Rejection";
+	private static final String HEARTBEAT = "org.lb.HeartbeatCycle";
+	private static final String PROVIDER = "org.lb.ProviderStateChange";
+
+	private LoadBalancerImpl lb;
+
+	private Recording recording;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		//
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		//
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		this.lb = new LoadBalancerImpl(1, LBPolicyFactory.createRoundRobinPolicy(2));
+		this.recording = new Recording();
+		this.recording.enable(SELECTION);
+		this.recording.enable(REJECTION);
+		this.recording.enable(HEARTBEAT);
+		this.recording.enable(PROVIDER);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		this.lb.stop();
+		this.lb = null;
+		this.recording.close();
+		this.recording = null;
+	}
+
+	private List<RecordedEvent> stop() throws Exception {
+		this.recording.stop();
+		final Path file = Files.createTempFile("lb", ".jfr");
+		try {
+			this.recording.dump(file);
+			return RecordingFile.readAllEvents(file);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static List<RecordedEvent> events(List<RecordedEvent> events, String name) {
+		return events.stream().filter(e -> e.getEventType().getName().equals(name)).collect(Collectors.toList());
+	}
+
+	@Test
+	void testGuards() throws Exception {
+		assertFalse(LoadBalancerEvents.selection);
+		assertFalse(LoadBalancerEvents.rejection);
+		this.recording.start();
+		assertTrue(LoadBalancerEvents.selection);
+		assertTrue(LoadBalancerEvents.rejection);
+		this.recording.stop();
+		assertFalse(LoadBalancerEvents.selection);
+		assertFalse(LoadBalancerEvents.rejection);
+	}
+
+	@Test
+	void testEvents() throws Exception {
+		this.recording.start();
+		var provider = new DefaultProvider();
+		var list = new ArrayList<Provider>();
+		list.add(provider);
+		this.lb.register(list);
+
+		assertNull(this.lb.tryGet()); // not started
+		this.lb.start();
+		// the first heartbeat runs at once, it would enable the provider again
+		while (this.lb.snapshot().getHeartbeats() == 0L) {
+			Thread.sleep(1L);
+		}
+		this.lb.setEnabledProviders(List.of());
+		assertNull(this.lb.tryGet()); // no provider
+		this.lb.setEnabledProviders(list);
+		assertNotNull(this.lb.tryGet("key"));
+		provider.increasePending(); // saturated
+		assertNull(this.lb.tryGet());
+		provider.decreasePending();
+
+		provider.disable();
+		provider.disable(); // no transition
+		provider.enable();
+		provider.enable();
+		provider.enable();
+		new HeartBeatChecker(this.lb).run();
+		final List<RecordedEvent> events = stop();
+
+		final List<RecordedEvent> selections = events(events, SELECTION);
+		assertEquals(1, selections.size());
+		assertEquals(provider.getId(), selections.get(0).getInt("provider"));
+		assertTrue(selections.get(0).getBoolean("keyed"));
+		assertEquals("RoundRobinPolicy", selections.get(0).getString("policy"));
+		assertTrue(selections.get(0).getLong("selectionTime") >= 0L);
+
+		final List<String> reasons = events(events, REJECTION).stream().map(e -> e.getString("reason"))
+				.collect(Collectors.toList());
+		assertEquals(List.of(LoadBalancerEvents.NOT_STARTED, LoadBalancerEvents.NO_PROVIDER,
+				LoadBalancerEvents.OVERLOADED), reasons);
+
+		final List<RecordedEvent> transitions = events(events, PROVIDER).stream()
+				.filter(e -> e.getInt("provider") == provider.getId()).collect(Collectors.toList());
+		assertEquals(2, transitions.size());
+		assertFalse(transitions.get(0).getBoolean("enabled"));
+		assertTrue(transitions.get(1).getBoolean("enabled"));
+
+		final List<RecordedEvent> heartbeats = events(events, HEARTBEAT);
+		assertFalse(heartbeats.isEmpty());
+		final RecordedEvent heartbeat = heartbeats.get(heartbeats.size() - 1);
+		assertEquals(1, heartbeat.getInt("checkedProviders"));
+		assertEquals(1, heartbeat.getInt("enabledProviders"));
+		assertEquals(0, heartbeat.getInt("timedOutChecks"));
+	}
+
+}
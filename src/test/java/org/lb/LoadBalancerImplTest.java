@@ -3,12 +3,22 @@ package org.lb;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import org.app.Utils;
@@ -20,6 +30,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 import org.lb.policies.LBPolicyFactory;
+import org.lb.provider.CircuitBreaker;
 import org.lb.provider.DefaultProvider;
 import org.lb.provider.Provider;
 
@@ -142,6 +153,406 @@ class LoadBalancerImplTest {
 
 	}
 
+	@Test
+	void testRejectionReasons() throws Exception {
+		assertNull(this.lb.tryGet());
+		assertEquals(1L, this.lb.snapshot().getNotStarted());
+
+		this.lb.start();
+		assertNull(this.lb.tryGet());
+		assertEquals(1L, this.lb.snapshot().getNoProvider());
+
+		var slow = new AsyncSlowProvider(200L);
+		var list = new ArrayList<Provider>();
+		list.add(slow);
+		this.lb.register(list);
+		this.lb.setEnabledProviders(list);
+		List<CompletableFuture<Optional<String>>> futures = new ArrayList<>(MAX_LOAD);
+		for (int i = 0; i < MAX_LOAD; i++) {
+			futures.add(this.lb.getAsync().toCompletableFuture());
+		}
+		assertTrue(this.lb.getAsync().toCompletableFuture().get().isEmpty());
+		for (var future : futures) {
+			assertTrue(future.get().isPresent());
+		}
+
+		final MetricsSnapshot snapshot = this.lb.snapshot();
+		assertEquals(MAX_LOAD, snapshot.getSuccess());
+		assertEquals(0L, snapshot.getFailed());
+		assertEquals(1L, snapshot.getOverloaded());
+		assertEquals(1L, snapshot.getNoProvider());
+		assertEquals(1L, snapshot.getNotStarted());
+		assertEquals(3L, snapshot.getRejected());
+
+		final RateSnapshot rates = this.lb.rates(60);
+		assertEquals(MAX_LOAD + 3L, rates.getArrivals());
+		assertEquals(MAX_LOAD, rates.getSuccess());
+		assertEquals(1L, rates.getOverloaded());
+		assertEquals(1L, rates.getNoProvider());
+		assertEquals(1L, rates.getNotStarted());
+		assertEquals(Map.of(slow.getId(), (long) MAX_LOAD), rates.getSelections());
+	}
+
+	@Test
+	void testPerProviderCapacity() {
+		var provider1 = new DefaultProvider();
+		var provider2 = new DefaultProvider();
+		var list = new ArrayList<Provider>();
+		list.add(provider1);
+		list.add(provider2);
+		this.lb.register(list);
+		this.lb.start();
+		this.lb.setEnabledProviders(list);
+
+		// provider1 is saturated, all requests go to provider2
+		for (int i = 0; i < MAX_LOAD; i++) {
+			assertTrue(provider1.tryIncreasePending(MAX_LOAD));
+		}
+		for (int i = 0; i < 10; i++) {
+			assertEquals(provider2.get(), this.lb.tryGet());
+		}
+		assertEquals(0L, this.lb.getRejected());
+
+		// both providers are saturated
+		for (int i = 0; i < MAX_LOAD; i++) {
+			assertTrue(provider2.tryIncreasePending(MAX_LOAD));
+		}
+		assertNull(this.lb.tryGet());
+		assertEquals(1L, this.lb.getRejected());
+	}
+
+	@Test
+	void testSaturatedNextToIdle() {
+		LoadBalancerImpl myLb = new LoadBalancerImpl(1, LBPolicyFactory.createRoundRobinPolicy(MAX_PROVIDERS));
+		var list = new ArrayList<Provider>();
+		for (int i = 0; i < MAX_PROVIDERS; i++) {
+			list.add(new DefaultProvider());
+		}
+		myLb.register(list);
+		myLb.start();
+		myLb.setEnabledProviders(list);
+
+		// more saturated providers in a row than the policy tries
+		for (int i = 0; i < 3; i++) {
+			assertTrue(list.get(i).tryIncreasePending(1));
+		}
+		for (int i = 0; i < 100; i++) {
+			assertNotNull(myLb.tryGet());
+		}
+		assertEquals(0L, myLb.getRejected());
+		assertEquals(0L, myLb.snapshot().getOverloaded());
+
+		// all saturated
+		for (int i = 3; i < MAX_PROVIDERS; i++) {
+			assertTrue(list.get(i).tryIncreasePending(1));
+		}
+		assertNull(myLb.tryGet());
+		assertEquals(1L, myLb.snapshot().getOverloaded());
+		myLb.stop();
+	}
+
+	@Test
+	void testProviderCapacity() {
+		var provider = new DefaultProvider(1, 1); // lower than MAX_LOAD
+		var list = new ArrayList<Provider>();
+		list.add(provider);
+		this.lb.register(list);
+		this.lb.start();
+		this.lb.setEnabledProviders(list);
+
+		assertTrue(provider.tryIncreasePending(MAX_LOAD));
+		assertNull(this.lb.tryGet());
+		provider.decreasePending();
+		assertEquals(provider.get(), this.lb.tryGet());
+	}
+
+	@Test
+	void testGetAsync() throws Exception {
+		var list = createListWithOneProvider();
+		this.lb.register(list);
+		this.lb.start();
+		this.lb.setEnabledProviders(list);
+
+		assertEquals(list.get(0).get(), this.lb.getAsync().toCompletableFuture().get().orElseThrow());
+		assertEquals(0, list.get(0).getPending());
+		assertEquals(1L, this.lb.getSuccess());
+	}
+
+	@Test
+	void testGetAsyncNotStarted() throws Exception {
+		assertTrue(this.lb.getAsync().toCompletableFuture().get().isEmpty());
+		assertEquals(1L, this.lb.getRejected());
+	}
+
+	@Test
+	@Timeout(20)
+	void testGetAsyncPending() throws Exception {
+		final int requests = 10_000;
+		LoadBalancerImpl myLb = new LoadBalancerImpl(requests, LBPolicyFactory.createRoundRobinPolicy(1));
+		var provider = new AsyncSlowProvider(2_000L);
+		var list = new ArrayList<Provider>();
+		list.add(provider);
+		myLb.register(list);
+		myLb.start();
+		myLb.setEnabledProviders(list);
+
+		// all requests are sent by this thread without waiting
+		List<CompletableFuture<Optional<String>>> futures = new ArrayList<>(requests);
+		for (int i = 0; i < requests; i++) {
+			futures.add(myLb.getAsync().toCompletableFuture());
+		}
+		// the permits are released on completion
+		assertEquals(requests, provider.getPending());
+		assertTrue(myLb.getAsync().toCompletableFuture().get().isEmpty()); // saturated
+
+		for (var future : futures) {
+			assertEquals(provider.get(), future.get().orElseThrow());
+		}
+		myLb.stop();
+		assertEquals(0, provider.getPending());
+		assertEquals(0L, myLb.snapshot().getPending());
+		assertEquals(requests, myLb.getSuccess());
+		assertEquals(1L, myLb.getRejected());
+	}
+
+	@Test
+	@Timeout(20)
+	void testGetAsyncExecutor() throws Exception {
+		final int requests = 100;
+		ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor(requests);
+		LoadBalancerImpl myLb = new LoadBalancerImpl(requests, LBPolicyFactory.createRoundRobinPolicy(1), executor);
+		var provider = new SlowProvider(SLOW_PROVIDER_GET_TIMEOUT);
+		myLb.register(List.of(provider));
+		myLb.start();
+		myLb.setEnabledProviders(List.of(provider));
+
+		// the blocking provider does not block this thread
+		List<CompletableFuture<Optional<String>>> futures = new ArrayList<>(requests);
+		for (int i = 0; i < requests; i++) {
+			futures.add(myLb.getAsync().toCompletableFuture());
+		}
+		assertTrue(provider.getPending() > 0);
+
+		final String expected = "provider_" + provider.getId(); // get() is slow
+		for (var future : futures) {
+			assertEquals(expected, future.get().orElseThrow());
+		}
+		myLb.stop();
+		executor.shutdown();
+		assertEquals(0, provider.getPending());
+		assertEquals(requests, myLb.getSuccess());
+	}
+
+	@Test
+	void testGetAsyncFailure() {
+		var provider = new DefaultProvider() {
+			@Override
+			public String get() {
+				throw new IllegalStateException("failure");
+			}
+		};
+		var list = new ArrayList<Provider>();
+		list.add(provider);
+		this.lb.register(list);
+		this.lb.start();
+		this.lb.setEnabledProviders(list);
+
+		var future = this.lb.getAsync().toCompletableFuture();
+		assertThrows(ExecutionException.class, () -> future.get());
+		assertEquals(0, provider.getPending());
+		assertEquals(1L, this.lb.getRejected());
+	}
+
+	@Test
+	void testProviderFailure() throws InterruptedException {
+		// fails intermittently, not often enough to open its circuit breaker
+		var failing = new DefaultProvider() {
+			volatile boolean fail = true;
+			final AtomicInteger calls = new AtomicInteger();
+
+			@Override
+			public String get() {
+				if (this.fail && this.calls.getAndIncrement() % 2 == 0) {
+					throw new IllegalStateException("failure");
+				}
+				return super.get();
+			}
+		};
+		var healthy = new DefaultProvider();
+		var list = new ArrayList<Provider>();
+		list.add(failing);
+		list.add(healthy);
+		this.lb.register(list);
+		this.lb.start();
+		Thread.sleep(500L); // wait till hearbeat completes
+
+		// the failure is reported to the caller and does not leak permits
+		int failures = 0;
+		for (int i = 0; i < 100; i++) {
+			try {
+				assertNotNull(this.lb.tryGet());
+			} catch (IllegalStateException e) {
+				failures++;
+			}
+		}
+		assertEquals(0, failing.getPending());
+		assertEquals(0L, this.lb.snapshot().getPending());
+		assertEquals(100L, this.lb.getLoad());
+		assertEquals(failures, this.lb.getRejected());
+
+		// passive health check ejected the failing provider
+		assertTrue(failures < 50);
+		assertEquals(CircuitBreaker.State.CLOSED, failing.getCircuitBreaker().getState());
+		assertFalse(this.lb.isEnabled(failing));
+
+		// including it again does not bring it back
+		assertTrue(this.lb.include(failing.getId(), true));
+		assertFalse(this.lb.isEnabled(failing));
+
+		// disabled by the next heartbeat, then re-enabled after 2 successful health
+		// checks
+		failing.fail = false;
+		new HeartBeatChecker(this.lb).run();
+		assertFalse(failing.isEnabled());
+		assertFalse(this.lb.isEnabled(failing));
+		new HeartBeatChecker(this.lb).run();
+		assertTrue(failing.isEnabled());
+		assertTrue(this.lb.isEnabled(failing));
+	}
+
+	@Test
+	void testProviderDown() throws InterruptedException {
+		var failing = new DefaultProvider() {
+			@Override
+			public String get() {
+				throw new IllegalStateException("failure");
+			}
+		};
+		var healthy = new DefaultProvider();
+		var list = new ArrayList<Provider>();
+		list.add(failing);
+		list.add(healthy);
+		this.lb.register(list);
+		this.lb.start();
+		Thread.sleep(500L); // wait till hearbeat completes
+
+		int failures = 0;
+		for (int i = 0; i < 100; i++) {
+			try {
+				assertEquals(healthy.get(), this.lb.tryGet());
+			} catch (IllegalStateException e) {
+				failures++;
+			}
+		}
+		assertEquals(0, failing.getPending());
+		assertEquals(0L, this.lb.snapshot().getPending());
+		assertEquals(failures, this.lb.getRejected());
+
+		// too few requests for the outlier detector, ejected as its breaker opened
+		assertEquals(CircuitBreaker.DEFAULT_FAILURE_THRESHOLD, failures);
+		assertEquals(CircuitBreaker.State.OPEN, failing.getCircuitBreaker().getState());
+		assertFalse(this.lb.isEnabled(failing));
+		new HeartBeatChecker(this.lb).run();
+		assertFalse(failing.isEnabled());
+	}
+
+	@Test
+	void testSlowProvider() throws InterruptedException {
+		var slow = new DefaultProvider() {
+			@Override
+			public String get() {
+				try {
+					Thread.sleep(2L);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.get();
+			}
+		};
+		var list = new ArrayList<Provider>();
+		list.add(slow);
+		list.add(new DefaultProvider());
+		this.lb.register(list);
+		assertThrows(IllegalArgumentException.class, () -> this.lb.setSlowCallThreshold(0L, TimeUnit.MILLISECONDS));
+		this.lb.setSlowCallThreshold(1L, TimeUnit.MILLISECONDS);
+		this.lb.start();
+		Thread.sleep(500L); // wait till hearbeat completes
+
+		// the slow requests succeed, but count as failures
+		for (int i = 0; i < 100; i++) {
+			assertNotNull(this.lb.tryGet());
+		}
+		assertEquals(0L, this.lb.getRejected());
+		assertFalse(this.lb.isEnabled(slow));
+	}
+
+	@Test
+	void testCircuitBreaker() throws InterruptedException {
+		var failing = new DefaultProvider(100, Integer.MAX_VALUE, new CircuitBreaker(5, 100L, 2)) {
+			volatile boolean fail = true;
+
+			@Override
+			public String get() {
+				if (this.fail) {
+					throw new IllegalStateException("failure");
+				}
+				return super.get();
+			}
+		};
+		var healthy = new DefaultProvider();
+		var list = new ArrayList<Provider>();
+		list.add(failing);
+		list.add(healthy);
+		this.lb.register(list);
+		this.lb.start();
+		Thread.sleep(500L); // wait till hearbeat completes
+
+		// the breaker opens after 5 consecutive failures
+		int failures = 0;
+		for (int i = 0; i < 100; i++) {
+			try {
+				assertEquals("provider_" + healthy.getId(), this.lb.tryGet());
+			} catch (IllegalStateException e) {
+				failures++;
+			}
+		}
+		assertEquals(5, failures);
+		assertEquals(CircuitBreaker.State.OPEN, failing.getCircuitBreaker().getState());
+		assertEquals(95L, healthy.getRequests());
+		// ejected as the breaker opened
+		assertFalse(this.lb.isEnabled(failing));
+
+		// re-enabled by the heartbeat, half-open, the trial fails
+		new HeartBeatChecker(this.lb).run();
+		new HeartBeatChecker(this.lb).run();
+		assertTrue(this.lb.isEnabled(failing));
+		Thread.sleep(200L);
+		failures = 0;
+		for (int i = 0; i < 10; i++) {
+			try {
+				this.lb.tryGet();
+			} catch (IllegalStateException e) {
+				failures++;
+			}
+		}
+		assertEquals(1, failures);
+		assertEquals(CircuitBreaker.State.OPEN, failing.getCircuitBreaker().getState());
+		assertFalse(this.lb.isEnabled(failing));
+
+		// re-enabled by the heartbeat, half-open, the trials succeed
+		failing.fail = false;
+		new HeartBeatChecker(this.lb).run();
+		new HeartBeatChecker(this.lb).run();
+		assertTrue(this.lb.isEnabled(failing));
+		Thread.sleep(200L);
+		for (int i = 0; i < 10; i++) {
+			assertNotNull(this.lb.tryGet());
+		}
+		assertEquals(CircuitBreaker.State.CLOSED, failing.getCircuitBreaker().getState());
+		assertTrue(failing.getRequests() > 2L);
+		assertEquals(0L, this.lb.snapshot().getPending());
+	}
+
 	private static ArrayList<Provider> createListWithOneProvider() {
 		ArrayList<Provider> list = new ArrayList<>();
 		list.add(new DefaultProvider());
@@ -166,6 +577,247 @@ class LoadBalancerImplTest {
 		assertEquals(this.lb.get().get(), list.get(0).get());
 	}
 
+	@Test
+	void testTryGet() {
+		assertEquals(null, this.lb.tryGet()); // not started
+		var list = createListWithOneProvider();
+		this.lb.register(list);
+		this.lb.start();
+		this.lb.setEnabledProviders(list);
+		assertEquals(list.get(0).get(), this.lb.tryGet());
+	}
+
+	@Test
+	void testLatency() {
+		var slow = new SlowProvider(20L);
+		var fast = new DefaultProvider();
+		var list = new ArrayList<Provider>();
+		list.add(slow);
+		list.add(fast);
+		this.lb.register(list);
+		this.lb.start();
+		this.lb.setEnabledProviders(list);
+		assertEquals(0L, this.lb.latency().getCount());
+		assertTrue(this.lb.latencies().isEmpty());
+
+		final int requests = 10;
+		for (int i = 0; i < requests; i++) {
+			assertNotNull(this.lb.tryGet());
+		}
+		final LatencySnapshot all = this.lb.latency();
+		assertEquals(requests, all.getCount());
+		assertTrue(all.getMax() >= 20_000_000L);
+
+		final var latencies = this.lb.latencies();
+		assertEquals(2, latencies.size());
+		final LatencySnapshot slowLatency = latencies.get(slow.getId());
+		final LatencySnapshot fastLatency = latencies.get(fast.getId());
+		assertEquals(requests / 2, slowLatency.getCount());
+		assertEquals(requests / 2, fastLatency.getCount());
+		assertTrue(slowLatency.getP50() >= 20_000_000L);
+		assertTrue(fastLatency.getP999() < slowLatency.getP50());
+
+		assertTrue(this.lb.deregister(slow.getId()));
+		assertEquals(List.of(fast.getId()), List.copyOf(this.lb.latencies().keySet()));
+		assertEquals(requests, this.lb.latency().getCount());
+	}
+
+	@Test
+	void testTryGetDoesNotAllocate() {
+		var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		var list = createListWithOneProvider();
+		this.lb.register(list);
+		this.lb.start();
+		this.lb.setEnabledProviders(list);
+
+		final int reps = 100_000;
+		for (int i = 0; i < reps; i++) { // warm up
+			assertNotNull(this.lb.tryGet());
+		}
+		final long threadId = Thread.currentThread().getId();
+		final long before = threadBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < reps; i++) {
+			this.lb.tryGet();
+		}
+		final long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+		assertTrue(allocated < 1_024L, "Allocated bytes: " + allocated);
+	}
+
+	@Test
+	void testTryGetKey() {
+		var lb = new LoadBalancerImpl(MAX_LOAD, LBPolicyFactory.createConsistentHashPolicy(MAX_PROVIDERS));
+		var list = new ArrayList<Provider>();
+		for (int i = 0; i < MAX_PROVIDERS; i++) {
+			list.add(new DefaultProvider());
+		}
+		lb.register(list);
+		assertNull(lb.tryGet("user"));
+		lb.start();
+		lb.setEnabledProviders(list);
+
+		assertThrows(NullPointerException.class, () -> {
+			lb.tryGet(null);
+		});
+		final String id = lb.tryGet("user");
+		assertNotNull(id);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(id, lb.tryGet("user"));
+			assertEquals(Optional.of(id), lb.get("user"));
+		}
+
+		// a keyed request on a policy without affinity
+		this.lb.register(createListWithOneProvider());
+		this.lb.start();
+		this.lb.setEnabledProviders(this.lb.getProviders());
+		assertNotNull(this.lb.tryGet("user"));
+
+		final var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final String[] keys = new String[64];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = "user-" + i;
+		}
+		final int reps = 100_000;
+		for (int i = 0; i < reps; i++) { // warm up
+			assertNotNull(lb.tryGet(keys[i & 63]));
+		}
+		final long threadId = Thread.currentThread().getId();
+		final long before = threadBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < reps; i++) {
+			lb.tryGet(keys[i & 63]);
+		}
+		final long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+		assertTrue(allocated < 1_024L, "Allocated bytes: " + allocated);
+		lb.stop();
+	}
+
+	@Test
+	void testDeregister() {
+		var list = createListWithOneProvider();
+		var other = new DefaultProvider();
+		list.add(other);
+		this.lb.register(list);
+		this.lb.start();
+		this.lb.setEnabledProviders(list);
+
+		final int id = list.get(0).getId();
+		assertTrue(this.lb.deregister(id));
+		assertFalse(this.lb.deregister(id));
+		assertEquals(List.of(other), this.lb.getProviders());
+		for (int i = 0; i < 10; i++) {
+			assertEquals("provider_" + other.getId(), this.lb.tryGet());
+		}
+
+		// the heartbeat does not bring it back
+		new HeartBeatChecker(this.lb).run();
+		assertFalse(this.lb.isEnabled(list.get(0)));
+	}
+
+	@Test
+	void testDrain() throws Exception {
+		final int requests = 100;
+		var slow = new AsyncSlowProvider(500L);
+		var fast = new DefaultProvider();
+		LoadBalancerImpl myLb = new LoadBalancerImpl(requests, LBPolicyFactory.createRoundRobinPolicy(2));
+		var list = new ArrayList<Provider>();
+		list.add(slow);
+		list.add(fast);
+		myLb.register(list);
+		myLb.start();
+		myLb.setEnabledProviders(list);
+
+		List<CompletableFuture<Optional<String>>> futures = new ArrayList<>(requests);
+		for (int i = 0; i < requests; i++) {
+			futures.add(myLb.getAsync().toCompletableFuture());
+		}
+		assertEquals(requests / 2, slow.getPending());
+
+		// no more requests for the drained provider, without waiting
+		final long start = System.nanoTime();
+		var drained = myLb.drain(slow.getId()).toCompletableFuture();
+		assertTrue(System.nanoTime() - start < 100_000_000L);
+		assertFalse(myLb.isEnabled(slow));
+		for (int i = 0; i < requests; i++) {
+			assertEquals(Optional.of("provider_" + fast.getId()), myLb.get());
+		}
+		assertFalse(drained.isDone());
+		assertEquals(2, myLb.getProviders().size());
+
+		// removed once the pending requests complete
+		assertTrue(drained.get());
+		assertEquals(0, slow.getPending());
+		assertEquals(List.of(fast), myLb.getProviders());
+		for (var future : futures) {
+			assertTrue(future.isDone());
+			assertTrue(future.get().isPresent());
+		}
+		assertEquals(0L, myLb.getRejected());
+
+		assertFalse(myLb.drain(slow.getId()).toCompletableFuture().get());
+		myLb.stop();
+	}
+
+	@Test
+	void testDrainInProgress() throws Exception {
+		var slow = new AsyncSlowProvider(500L);
+		var fast = new DefaultProvider();
+		LoadBalancerImpl myLb = new LoadBalancerImpl(10, LBPolicyFactory.createRoundRobinPolicy(2));
+		var list = new ArrayList<Provider>();
+		list.add(slow);
+		list.add(fast);
+		myLb.register(list);
+		myLb.start();
+		myLb.setEnabledProviders(list);
+		for (int i = 0; i < 10; i++) {
+			myLb.getAsync();
+		}
+		assertEquals(5, slow.getPending());
+
+		// draining again returns the drain in progress
+		var drained = myLb.drain(slow.getId()).toCompletableFuture();
+		assertSame(drained, myLb.drain(slow.getId(), 1L, TimeUnit.MILLISECONDS).toCompletableFuture());
+
+		// cannot be included again, neither by the caller nor by the heartbeat
+		assertFalse(myLb.include(slow.getId(), true));
+		assertFalse(slow.isIncluded());
+		slow.include(true); // behind the load balancer's back
+		new HeartBeatChecker(myLb).run();
+		new HeartBeatChecker(myLb).run();
+		assertFalse(myLb.isEnabled(slow));
+
+		assertTrue(drained.get());
+		assertEquals(List.of(fast), myLb.getProviders());
+		myLb.stop();
+	}
+
+	@Test
+	void testDrainTimeout() throws Exception {
+		var slow = new AsyncSlowProvider(500L);
+		var fast = new DefaultProvider();
+		LoadBalancerImpl myLb = new LoadBalancerImpl(10, LBPolicyFactory.createRoundRobinPolicy(2));
+		var list = new ArrayList<Provider>();
+		list.add(slow);
+		list.add(fast);
+		myLb.register(list);
+		myLb.start();
+		myLb.setEnabledProviders(list);
+		List<CompletableFuture<Optional<String>>> futures = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			futures.add(myLb.getAsync().toCompletableFuture());
+		}
+
+		// removed at the timeout, its pending requests complete normally
+		final long start = System.nanoTime();
+		assertTrue(myLb.drain(slow.getId(), 50L, TimeUnit.MILLISECONDS).toCompletableFuture().get());
+		assertTrue(System.nanoTime() - start < 400_000_000L);
+		assertTrue(slow.getPending() > 0);
+		assertEquals(List.of(fast), myLb.getProviders());
+		for (var future : futures) {
+			assertTrue(future.get().isPresent());
+		}
+		assertEquals(0, slow.getPending());
+		myLb.stop();
+	}
+
 	@Test
 	void testRegister() {
 		List<Provider> list = new ArrayList<>(MAX_PROVIDERS);
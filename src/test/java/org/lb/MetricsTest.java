@@ -2,11 +2,14 @@ package org.lb;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.Map;
+
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.lb.provider.DefaultProvider;
 
 class MetricsTest {
 
@@ -160,4 +163,116 @@ class MetricsTest {
 		}
 	}
 
+	@Test
+	void testSnapshot() {
+		this.metrics.increasePending();
+		this.metrics.success();
+		this.metrics.reject();
+		this.metrics.reject();
+
+		MetricsSnapshot snapshot = this.metrics.snapshot();
+		assertEquals(3L, snapshot.getArrivals());
+		assertEquals(1L, snapshot.getSuccess());
+		assertEquals(2L, snapshot.getRejected());
+		assertEquals(1L, snapshot.getPending());
+	}
+
+	@Test
+	void testConcurrentUpdates() throws InterruptedException {
+		final int nThreads = 4;
+		final int reps = 100_000;
+		Thread[] threads = new Thread[nThreads];
+		for (int i = 0; i < nThreads; i++) {
+			threads[i] = new Thread(() -> {
+				for (int j = 0; j < reps; j++) {
+					this.metrics.increasePending();
+					this.metrics.success();
+					this.metrics.decreasePending();
+					this.metrics.reject();
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		MetricsSnapshot snapshot = this.metrics.snapshot();
+		assertEquals(2L * nThreads * reps, snapshot.getArrivals());
+		assertEquals((long) nThreads * reps, snapshot.getSuccess());
+		assertEquals((long) nThreads * reps, snapshot.getRejected());
+		assertEquals(0L, snapshot.getPending());
+	}
+
+	@Test
+	void testRejectionReasons() {
+		final long now = System.nanoTime();
+		this.metrics.success(now);
+		this.metrics.reject(now);
+		this.metrics.overloaded(now);
+		this.metrics.overloaded(now);
+		this.metrics.noProvider(now);
+		this.metrics.notStarted(now);
+
+		MetricsSnapshot snapshot = this.metrics.snapshot();
+		assertEquals(6L, snapshot.getArrivals());
+		assertEquals(1L, snapshot.getSuccess());
+		assertEquals(5L, snapshot.getRejected());
+		assertEquals(1L, snapshot.getFailed());
+		assertEquals(2L, snapshot.getOverloaded());
+		assertEquals(1L, snapshot.getNoProvider());
+		assertEquals(1L, snapshot.getNotStarted());
+		assertEquals(5L, this.metrics.getRejected());
+	}
+
+	@Test
+	void testRemovedProvider() {
+		final DefaultProvider provider = new DefaultProvider();
+		this.metrics.add(provider);
+		assertTrue(this.metrics.providerLatency().isEmpty());
+		this.metrics.latency(provider, 1_000L);
+		assertEquals(1L, this.metrics.providerLatency().get(provider.getId()).getCount());
+
+		// a request still in flight when the provider is deregistered
+		this.metrics.remove(provider);
+		this.metrics.selected(provider, System.nanoTime());
+		this.metrics.latency(provider, 2_000L);
+		assertNull(this.metrics.latencyHistogram(provider));
+		assertTrue(this.metrics.providerLatency().isEmpty());
+		assertTrue(this.metrics.rates(60).getSelections().isEmpty());
+		assertEquals(2L, this.metrics.latency().getCount());
+	}
+
+	@Test
+	void testRates() {
+		final long second = 1_000_000_000L;
+		final long start = System.nanoTime();
+		final DefaultProvider provider = new DefaultProvider();
+		this.metrics.add(provider);
+		for (int i = 0; i < 20; i++) {
+			final long now = start + i * second;
+			this.metrics.selected(provider, now);
+			this.metrics.success(now);
+			this.metrics.overloaded(now);
+		}
+		final long now = start + 19 * second;
+
+		RateSnapshot rates = this.metrics.rates(10, now);
+		assertEquals(10, rates.getSeconds());
+		assertEquals(20L, rates.getArrivals());
+		assertEquals(10L, rates.getSuccess());
+		assertEquals(10L, rates.getRejected());
+		assertEquals(10L, rates.getOverloaded());
+		assertEquals(0L, rates.getNoProvider());
+		assertEquals(Map.of(provider.getId(), 10L), rates.getSelections());
+		assertEquals(2.0, rates.getArrivalRate());
+		assertEquals(1.0, rates.getSuccessRate());
+		assertEquals(1.0, rates.getRejectionRate());
+
+		assertEquals(1L, this.metrics.rates(1, now).getSuccess());
+		assertEquals(40L, this.metrics.rates(60, now).getArrivals());
+		assertTrue(this.metrics.rates(60, now + 100 * second).getSelections().isEmpty());
+		assertThrows(IllegalArgumentException.class, () -> this.metrics.rates(0));
+	}
+
 }
@@ -0,0 +1,150 @@
+package org.lb;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lb.provider.DefaultProvider;
+import org.lb.provider.Provider;
+
+class OutlierDetectorTest {
+
+	private static final int MIN_REQUESTS = 10;
+
+	private List<Provider> ejected;
+
+	private OutlierDetector detector;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		//
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		//
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		this.ejected = new ArrayList<>();
+		this.detector = new OutlierDetector(OutlierDetector.DEFAULT_WINDOW_NANOS, MIN_REQUESTS, 0.5, 1_000_000L,
+				this.ejected::add);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		this.detector = null;
+	}
+
+	@Test
+	void testWrongConstructor() {
+		assertThrows(IllegalArgumentException.class, () -> {
+			new OutlierDetector(OutlierDetector.DEFAULT_WINDOW_NANOS, 0, 0.5, 1L, x -> {});
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			new OutlierDetector(OutlierDetector.DEFAULT_WINDOW_NANOS, 1, 0.0, 1L, x -> {});
+		});
+		assertThrows(NullPointerException.class, () -> {
+			new OutlierDetector(null);
+		});
+	}
+
+	@Test
+	void testSuccess() {
+		var provider = new DefaultProvider();
+		this.detector.add(provider);
+		for (int i = 0; i < 1000; i++) {
+			this.detector.record(provider, true, 1L);
+		}
+		assertTrue(this.ejected.isEmpty());
+	}
+
+	@Test
+	void testMinRequests() {
+		var provider = new DefaultProvider();
+		this.detector.add(provider);
+		for (int i = 0; i < MIN_REQUESTS - 1; i++) {
+			this.detector.record(provider, false, 1L);
+		}
+		assertTrue(this.ejected.isEmpty());
+		this.detector.record(provider, false, 1L);
+		assertEquals(List.of(provider), this.ejected);
+	}
+
+	@Test
+	void testFailureRatio() {
+		var provider = new DefaultProvider();
+		this.detector.add(provider);
+		var other = new DefaultProvider();
+		this.detector.add(other);
+		// 1 failure out of 3 requests
+		for (int i = 0; i < 10; i++) {
+			this.detector.record(provider, true, 1L);
+			this.detector.record(provider, true, 1L);
+			this.detector.record(provider, false, 1L);
+			this.detector.record(other, false, 1L);
+		}
+		assertEquals(List.of(other), this.ejected);
+
+		// now 50%
+		for (int i = 0; i < 10; i++) {
+			this.detector.record(provider, false, 1L);
+		}
+		assertEquals(List.of(other, provider), this.ejected);
+	}
+
+	@Test
+	void testSlowCalls() {
+		var provider = new DefaultProvider();
+		this.detector.add(provider);
+		for (int i = 0; i < MIN_REQUESTS; i++) {
+			this.detector.record(provider, true, 2_000_000L); // 2ms
+		}
+		assertEquals(List.of(provider), this.ejected);
+	}
+
+	@Test
+	void testWindow() throws InterruptedException {
+		var detector = new OutlierDetector(100_000_000L, MIN_REQUESTS, 0.5, Long.MAX_VALUE, this.ejected::add);
+		var provider = new DefaultProvider();
+		detector.add(provider);
+		for (int i = 0; i < MIN_REQUESTS - 1; i++) {
+			detector.record(provider, false, 1L);
+		}
+		Thread.sleep(200L); // the failures fall out of the window
+		detector.record(provider, false, 1L);
+		assertTrue(this.ejected.isEmpty());
+	}
+
+	@Test
+	void testRemove() {
+		var provider = new DefaultProvider();
+		this.detector.add(provider);
+		this.detector.remove(provider);
+
+		// late outcomes of a forgotten provider are ignored
+		for (int i = 0; i < MIN_REQUESTS; i++) {
+			this.detector.record(provider, false, 1L);
+		}
+		assertTrue(this.ejected.isEmpty());
+	}
+
+	@Test
+	void testEjectedAgain() {
+		var provider = new DefaultProvider();
+		this.detector.add(provider);
+		for (int i = 0; i < 2 * MIN_REQUESTS; i++) {
+			this.detector.record(provider, false, 1L);
+		}
+		// tracked from scratch after the first ejection
+		assertEquals(List.of(provider, provider), this.ejected);
+	}
+
+}
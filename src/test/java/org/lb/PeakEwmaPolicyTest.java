@@ -0,0 +1,184 @@
+package org.lb;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.app.Utils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lb.policies.LBPolicyFactory;
+import org.lb.provider.DefaultProvider;
+import org.lb.provider.Provider;
+
+class PeakEwmaPolicyTest {
+
+	private static final int MAX_LOAD = 1_000;
+
+	private ProvidersManager policy;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		//
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		//
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		this.policy = LBPolicyFactory.createPeakEwmaPolicy(3);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		this.policy = null;
+	}
+
+	private ArrayList<Provider> registerAndEnable(int providers) {
+		ArrayList<Provider> list = new ArrayList<>();
+		for (int i = 0; i < providers; i++) {
+			var provider = new DefaultProvider();
+			assertTrue(this.policy.register(provider));
+			list.add(provider);
+		}
+		this.policy.setEnabledProviders(list);
+		return list;
+	}
+
+	/** Serve a request with the given provider and latency. */
+	private void sample(Provider provider, long latencyNanos) {
+		provider.increasePending();
+		this.policy.releaseProvider(provider, latencyNanos);
+	}
+
+	@Test
+	void testWrongDecay() {
+		assertThrows(IllegalArgumentException.class, () -> {
+			LBPolicyFactory.createPeakEwmaPolicy(3, 0L);
+		});
+	}
+
+	@Test
+	void testGetProvider1() {
+		assertTrue(this.policy.getProvider().isEmpty());
+		// registering a provider is not enough, it must be enabled!
+		this.policy.register(new DefaultProvider());
+		assertTrue(this.policy.getProvider().isEmpty());
+	}
+
+	@Test
+	void testGetProvider2() {
+		var list = registerAndEnable(1);
+		assertSame(list.get(0), this.policy.selectProvider());
+	}
+
+	@Test
+	void testLatency() {
+		var list = registerAndEnable(2);
+		var slow = list.get(0);
+		var fast = list.get(1);
+		sample(slow, 1_000_000_000L);
+		sample(fast, 1_000_000L);
+		for (int i = 0; i < 1000; i++) {
+			assertSame(fast, this.policy.selectProvider());
+		}
+
+		// peak: a single slow response is enough
+		sample(fast, 2_000_000_000L);
+		for (int i = 0; i < 1000; i++) {
+			assertSame(slow, this.policy.selectProvider());
+		}
+	}
+
+	@Test
+	void testPending() {
+		var list = registerAndEnable(2);
+		var slow = list.get(0);
+		var fast = list.get(1);
+		sample(slow, 10_000_000L);
+		sample(fast, 1_000_000L);
+
+		// cost = latency x (pending + 1)
+		for (int i = 0; i < 8; i++) {
+			fast.increasePending();
+		}
+		assertSame(fast, this.policy.selectProvider());
+		for (int i = 0; i < 4; i++) {
+			fast.increasePending();
+		}
+		assertSame(slow, this.policy.selectProvider());
+	}
+
+	@Test
+	void testNoSample() {
+		var list = registerAndEnable(2);
+		var fresh = list.get(0);
+		var fast = list.get(1);
+		sample(fast, 1_000_000L);
+
+		// idle: free, busy: avoided until its first response
+		assertSame(fresh, this.policy.selectProvider());
+		fresh.increasePending();
+		assertSame(fast, this.policy.selectProvider());
+	}
+
+	@Test
+	void testDecay() throws InterruptedException {
+		this.policy = LBPolicyFactory.createPeakEwmaPolicy(3, 10_000_000L); // 10 ms
+		var list = registerAndEnable(2);
+		var slow = list.get(0);
+		var fast = list.get(1);
+		sample(slow, 1_000_000_000L);
+		sample(fast, 1_000_000L);
+		assertSame(fast, this.policy.selectProvider());
+
+		// faster samples only lower the average as time goes by
+		sample(slow, 1_000L);
+		assertSame(fast, this.policy.selectProvider());
+		Thread.sleep(200L);
+		sample(slow, 1_000L);
+		sample(fast, 1_000_000L);
+		assertSame(slow, this.policy.selectProvider());
+	}
+
+	@Test
+	void testSlowProvider() {
+		LoadBalancerImpl lb = new LoadBalancerImpl(MAX_LOAD, this.policy);
+		var slow = new SlowProvider(100L);
+		var fast = new SlowProvider(1L);
+		ArrayList<Provider> list = new ArrayList<>();
+		list.add(slow);
+		list.add(fast);
+		lb.register(list);
+		lb.start();
+		lb.setEnabledProviders(list);
+
+		final int nThreads = 4;
+		final long deadline = System.nanoTime() + 1_000_000_000L;
+		CountDownLatch doneSignal = new CountDownLatch(nThreads);
+		for (int i = 0; i < nThreads; i++) {
+			new Thread(() -> {
+				while (System.nanoTime() < deadline) {
+					lb.tryGet();
+				}
+				doneSignal.countDown();
+			}).start();
+		}
+		Utils.waitCompletion(doneSignal);
+		lb.stop();
+
+		// round robin would send half of the requests to the slow provider
+		assertTrue(slow.getRequests() * 50 < fast.getRequests(),
+				"slow: " + slow.getRequests() + ", fast: " + fast.getRequests());
+		assertEquals(0, slow.getPending());
+		assertEquals(0, fast.getPending());
+	}
+
+}
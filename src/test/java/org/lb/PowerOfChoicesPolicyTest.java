@@ -0,0 +1,128 @@
+package org.lb;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lb.policies.LBPolicyFactory;
+import org.lb.provider.DefaultProvider;
+import org.lb.provider.Provider;
+
+class PowerOfChoicesPolicyTest {
+
+	/** Requests dispatched at each step of {@link #simulate}. */
+	private static final int ARRIVALS = 9;
+
+	/** Probability that a busy provider completes a request at each step, load ~95%. */
+	private static final double SERVICE_PROBABILITY = 0.95;
+
+	private ProvidersManager policy;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		//
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		//
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		this.policy = LBPolicyFactory.createPowerOfTwoChoicesPolicy(10);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		this.policy = null;
+	}
+
+	private static ArrayList<Provider> createProviders(int providers) {
+		ArrayList<Provider> list = new ArrayList<>();
+		for (int i = 0; i < providers; i++) {
+			list.add(new DefaultProvider());
+		}
+		return list;
+	}
+
+	@Test
+	void testWrongChoices() {
+		assertThrows(IllegalArgumentException.class, () -> {
+			LBPolicyFactory.createPowerOfChoicesPolicy(10, 1);
+		});
+	}
+
+	@Test
+	void testGetProvider1() {
+		assertTrue(this.policy.getProvider().isEmpty());
+		// registering a provider is not enough, it must be enabled!
+		this.policy.register(new DefaultProvider());
+		assertTrue(this.policy.getProvider().isEmpty());
+	}
+
+	@Test
+	void testGetProvider2() {
+		var list = createProviders(1);
+		this.policy.setEnabledProviders(list);
+		assertEquals(list.get(0), this.policy.selectProvider());
+	}
+
+	@Test
+	void testGetProvider3() {
+		// with two providers both are always sampled
+		var list = createProviders(2);
+		this.policy.setEnabledProviders(list);
+		list.get(0).increasePending();
+		for (int i = 0; i < 100; i++) {
+			assertEquals(list.get(1), this.policy.selectProvider());
+		}
+	}
+
+	/**
+	 * Run a discrete time simulation where at each step {@link #ARRIVALS}
+	 * requests are dispatched by the policy, and each busy provider completes one
+	 * request with probability {@link #SERVICE_PROBABILITY}.
+	 * 
+	 * @return The maximum number of pending requests of any provider.
+	 */
+	private static int simulate(ProvidersManager policy, int providers, int steps) {
+		var list = createProviders(providers);
+		policy.setEnabledProviders(list);
+
+		Random random = new Random(42L);
+		int max = 0;
+		for (int step = 0; step < steps; step++) {
+			for (int i = 0; i < ARRIVALS; i++) {
+				Provider provider = policy.selectProvider();
+				provider.increasePending();
+				max = Math.max(max, provider.getPending());
+			}
+			for (Provider provider : list) {
+				if (provider.getPending() > 0 && random.nextDouble() < SERVICE_PROBABILITY) {
+					provider.decreasePending();
+				}
+			}
+		}
+		return max;
+	}
+
+	@Test
+	void testMaxQueueLength() {
+		final int providers = 10;
+		final int steps = 100_000;
+		int random = simulate(LBPolicyFactory.createRandomPolicy(providers), providers, steps);
+		int twoChoices = simulate(this.policy, providers, steps);
+		int threeChoices = simulate(LBPolicyFactory.createPowerOfChoicesPolicy(providers, 3), providers, steps);
+
+		assertTrue(2 * twoChoices < random, "random: " + random + ", two choices: " + twoChoices);
+		assertTrue(threeChoices <= twoChoices, "two choices: " + twoChoices + ", three choices: " + threeChoices);
+	}
+
+}
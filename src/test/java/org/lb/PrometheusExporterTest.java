@@ -0,0 +1,197 @@
+package org.lb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lb.policies.LBPolicyFactory;
+import org.lb.provider.DefaultProvider;
+import org.lb.provider.Provider;
+
+class PrometheusExporterTest {
+
+	private static final int MAX_LOAD = 3;
+
+	private LoadBalancerImpl lb;
+
+	private List<Provider> providers;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		//
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		//
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		this.lb = new LoadBalancerImpl(MAX_LOAD, LBPolicyFactory.createRoundRobinPolicy(2));
+		this.providers = new ArrayList<>();
+		this.providers.add(new DefaultProvider());
+		this.providers.add(new DefaultProvider());
+		this.lb.register(this.providers);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		this.lb.stop();
+		this.lb = null;
+	}
+
+	private static InetSocketAddress loopback() {
+		return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+	}
+
+	private static HttpURLConnection connect(InetSocketAddress address, String method) throws IOException {
+		final URL url = new URL("http", address.getHostString(), address.getPort(), PrometheusExporter.PATH);
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(method);
+		connection.setConnectTimeout(5_000);
+		connection.setReadTimeout(5_000);
+		return connection;
+	}
+
+	private static String scrape(InetSocketAddress address) throws IOException {
+		final HttpURLConnection connection = connect(address, "GET");
+		assertEquals(200, connection.getResponseCode());
+		assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+		try (InputStream in = connection.getInputStream()) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	@Test
+	void testScrape() throws IOException {
+		final InetSocketAddress address = this.lb.exportMetrics(loopback());
+		this.lb.start();
+		this.lb.setEnabledProviders(this.providers);
+		for (int i = 0; i < 10; i++) {
+			assertNotNull(this.lb.tryGet());
+		}
+
+		final String text = scrape(address);
+		final String first = "provider=\"" + this.providers.get(0).getId() + "\"";
+		final String second = "provider=\"" + this.providers.get(1).getId() + "\"";
+		assertTrue(text.contains("# TYPE lb_requests_total counter\n"));
+		assertTrue(text.contains("lb_requests_total{outcome=\"success\"} 10\n"));
+		assertTrue(text.contains("lb_requests_total{outcome=\"overloaded\"} 0\n"));
+		assertTrue(text.contains("lb_pending_requests 0\n"));
+		assertTrue(text.contains("lb_up 1\n"));
+		assertTrue(text.contains("# TYPE lb_request_latency_seconds summary\n"));
+		assertTrue(text.contains("lb_request_latency_seconds{quantile=\"0.99\"} "));
+		assertTrue(text.contains("lb_request_latency_seconds_count 10\n"));
+		assertTrue(text.contains("lb_provider_requests_total{" + first + "} 5\n"));
+		assertTrue(text.contains("lb_provider_requests_total{" + second + "} 5\n"));
+		assertTrue(text.contains("lb_provider_enabled{" + first + "} 1\n"));
+		assertTrue(text.contains("lb_provider_circuit_state{" + first + ",state=\"CLOSED\"} 1\n"));
+		assertTrue(text.contains("lb_provider_latency_seconds{" + second + ",quantile=\"0.5\"} "));
+		assertTrue(text.contains("lb_provider_latency_seconds_count{" + second + "} 5\n"));
+
+		// each sample is a name, optional labels and a value
+		for (String line : text.split("\n")) {
+			assertTrue(line.startsWith("# ") || line.matches("[a-z_]+(\\{[^}]*\\})? [0-9.E-]+"), line);
+		}
+
+		// the buffers are reused
+		assertNotNull(this.lb.tryGet());
+		assertTrue(scrape(address).contains("lb_requests_total{outcome=\"success\"} 11\n"));
+	}
+
+	@Test
+	void testMethodNotAllowed() throws IOException {
+		final InetSocketAddress address = this.lb.exportMetrics(loopback());
+		this.lb.start();
+		final HttpURLConnection connection = connect(address, "POST");
+		assertEquals(405, connection.getResponseCode());
+
+		final HttpURLConnection head = connect(address, "HEAD");
+		assertEquals(200, head.getResponseCode());
+	}
+
+	@Test
+	void testStartStop() throws IOException {
+		final InetSocketAddress address = this.lb.exportMetrics(loopback());
+		assertTrue(address.getPort() > 0);
+		// bound, not serving yet
+		assertThrows(IOException.class, () -> connect(address, "GET").getResponseCode());
+
+		this.lb.start();
+		assertTrue(scrape(address).contains("lb_up 1\n"));
+		assertThrows(IllegalStateException.class, () -> this.lb.exportMetrics(loopback()));
+
+		this.lb.stop();
+		assertThrows(IOException.class, () -> connect(address, "GET").getResponseCode());
+	}
+
+	@Test
+	void testSeconds() {
+		assertEquals("0.000000000", PrometheusExporter.seconds(new StringBuilder(), 0L).toString());
+		assertEquals("0.000012345", PrometheusExporter.seconds(new StringBuilder(), 12_345L).toString());
+		assertEquals("3.100000000", PrometheusExporter.seconds(new StringBuilder(), 3_100_000_000L).toString());
+		assertEquals("-1.000000001", PrometheusExporter.seconds(new StringBuilder(), -1_000_000_001L).toString());
+	}
+
+	@Test
+	void testRenderAllocation() throws IOException {
+		final int many = 1_000;
+		LoadBalancerImpl large = new LoadBalancerImpl(many, MAX_LOAD);
+		List<Provider> list = new ArrayList<>(many);
+		for (int i = 0; i < many; i++) {
+			list.add(new DefaultProvider());
+		}
+		large.register(list);
+		large.start();
+		large.setEnabledProviders(list);
+		for (int i = 0; i < many; i++) {
+			assertNotNull(large.tryGet());
+		}
+		this.lb.start();
+		this.lb.setEnabledProviders(this.providers);
+		assertNotNull(this.lb.tryGet());
+
+		final PrometheusExporter small = new PrometheusExporter(this.lb, this.lb.metrics(), loopback());
+		final PrometheusExporter exporter = new PrometheusExporter(large, large.metrics(), loopback());
+		final long smallBytes = allocated(small);
+		final long largeBytes = allocated(exporter);
+		assertTrue(largeBytes < smallBytes + 10_000L, "Allocated bytes: " + smallBytes + ", " + largeBytes);
+		small.stop();
+		exporter.stop();
+		large.stop();
+	}
+
+	private static long allocated(PrometheusExporter exporter) {
+		var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long threadId = Thread.currentThread().getId();
+		// grow the buffers
+		for (int i = 0; i < 100; i++) {
+			exporter.render();
+		}
+		final int reps = 100;
+		final long before = threadBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < reps; i++) {
+			exporter.render();
+		}
+		return (threadBean.getThreadAllocatedBytes(threadId) - before) / reps;
+	}
+
+}
@@ -0,0 +1,165 @@
+package org.lb;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lb.provider.DefaultProvider;
+import org.lb.provider.Provider;
+
+class ProviderRegistryTest {
+
+	private ProviderRegistry registry;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		//
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		//
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		this.registry = new ProviderRegistry();
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		this.registry = null;
+	}
+
+	private Set<Provider> contents() {
+		Set<Provider> set = new HashSet<>();
+		this.registry.forEach(x -> assertTrue(set.add(x)));
+		return set;
+	}
+
+	@Test
+	void testAddGet() {
+		assertNull(this.registry.get(1));
+		var provider = new DefaultProvider(1);
+		assertTrue(this.registry.add(provider));
+		assertFalse(this.registry.add(new DefaultProvider(1)));
+		assertSame(provider, this.registry.get(1));
+		assertNull(this.registry.get(2));
+		assertEquals(1, this.registry.size());
+
+		// any id
+		for (int id : new int[] { 0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE }) {
+			assertTrue(this.registry.add(new DefaultProvider(id)));
+			assertEquals(id, this.registry.get(id).getId());
+		}
+		assertEquals(5, this.registry.size());
+	}
+
+	@Test
+	void testRemove() {
+		List<Provider> list = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			var provider = new DefaultProvider(i);
+			list.add(provider);
+			this.registry.add(provider);
+		}
+		assertNull(this.registry.remove(42));
+		assertSame(list.get(1), this.registry.remove(1));
+		assertNull(this.registry.remove(1));
+		assertNull(this.registry.get(1));
+		assertEquals(4, this.registry.size());
+		assertEquals(Set.of(list.get(0), list.get(2), list.get(3), list.get(4)), contents());
+
+		// the moved provider can still be removed
+		assertSame(list.get(4), this.registry.remove(4));
+		assertSame(list.get(0), this.registry.remove(0));
+		assertEquals(Set.of(list.get(2), list.get(3)), contents());
+
+		// and added again
+		assertTrue(this.registry.add(list.get(1)));
+		assertSame(list.get(1), this.registry.get(1));
+		assertEquals(3, this.registry.size());
+	}
+
+	@Test
+	void testThousands() {
+		final int providers = 10_000;
+		for (int i = 0; i < providers; i++) {
+			assertTrue(this.registry.add(new DefaultProvider(i * 7)));
+		}
+		assertEquals(providers, this.registry.size());
+		assertEquals(providers, contents().size());
+		for (int i = 0; i < providers; i++) {
+			assertEquals(i * 7, this.registry.get(i * 7).getId());
+			assertNull(this.registry.get(i * 7 + 1));
+		}
+		for (int i = 0; i < providers; i += 2) {
+			assertNotNull(this.registry.remove(i * 7));
+		}
+		assertEquals(providers / 2, this.registry.size());
+		assertEquals(providers / 2, contents().size());
+	}
+
+	@Test
+	void testChurn() {
+		// deleted slots do not fill the table
+		for (int i = 0; i < 100_000; i++) {
+			assertTrue(this.registry.add(new DefaultProvider(i)));
+			assertNotNull(this.registry.remove(i));
+		}
+		assertEquals(0, this.registry.size());
+		assertTrue(contents().isEmpty());
+	}
+
+	@Test
+	void testConcurrentReaders() throws InterruptedException {
+		// providers 0..99 never change, the others come and go
+		for (int i = 0; i < 100; i++) {
+			this.registry.add(new DefaultProvider(i));
+		}
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicInteger errors = new AtomicInteger();
+		List<Thread> readers = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			Thread reader = new Thread(() -> {
+				while (running.get()) {
+					for (int i = 0; i < 100; i++) {
+						Provider provider = this.registry.get(i);
+						if (provider == null || provider.getId() != i) {
+							errors.incrementAndGet();
+						}
+					}
+					this.registry.forEach(x -> {
+						if (x == null) {
+							errors.incrementAndGet();
+						}
+					});
+				}
+			});
+			reader.start();
+			readers.add(reader);
+		}
+		for (int i = 100; i < 100_000; i++) {
+			this.registry.add(new DefaultProvider(i));
+			if (i % 3 != 0) {
+				this.registry.remove(i);
+			}
+		}
+		running.set(false);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		assertEquals(0, errors.get());
+	}
+
+}
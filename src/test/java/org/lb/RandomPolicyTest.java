@@ -3,6 +3,7 @@ package org.lb;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
@@ -159,6 +160,61 @@ class RandomPolicyTest {
 		
 	}
 
+	@Test
+	void testSetEnabledProvidersSnapshot() {
+		Provider provider1 = new DefaultProvider();
+		ArrayList<Provider> list = new ArrayList<>();
+		list.add(provider1);
+		this.policy.setEnabledProviders(list);
+
+		// the policy works on a snapshot, later changes to the list are not visible
+		list.clear();
+		assertEquals(1, this.policy.enabledProviders());
+		assertEquals(provider1, this.policy.getProvider().orElseThrow());
+	}
+
+	@Test
+	void testUpdateEnabledProviders() {
+		var provider1 = new DefaultProvider();
+		var provider2 = new DefaultProvider();
+		assertFalse(this.policy.updateEnabledProviders(List.of(), List.of()));
+		assertFalse(this.policy.updateEnabledProviders(List.of(), List.of(provider1))); // not enabled
+
+		assertTrue(this.policy.updateEnabledProviders(List.of(provider1, provider2), List.of()));
+		assertEquals(2, this.policy.enabledProviders());
+		assertTrue(this.policy.isEnabled(provider1));
+		assertTrue(this.policy.isEnabled(provider2));
+		assertFalse(this.policy.updateEnabledProviders(List.of(provider1), List.of())); // no change
+
+		assertTrue(this.policy.updateEnabledProviders(List.of(), List.of(provider1)));
+		assertEquals(1, this.policy.enabledProviders());
+		assertFalse(this.policy.isEnabled(provider1));
+		assertEquals(provider2, this.policy.getProvider().orElseThrow());
+
+		// disable wins
+		assertTrue(this.policy.updateEnabledProviders(List.of(provider1), List.of(provider1, provider2)));
+		assertEquals(0, this.policy.enabledProviders());
+		assertTrue(this.policy.getProvider().isEmpty());
+	}
+
+	@Test
+	void testIncludeImmediate() {
+		var provider = new DefaultProvider();
+		this.policy.register(provider);
+		this.policy.setEnabledProviders(List.of(provider));
+
+		assertTrue(this.policy.include(provider.getId(), false));
+		assertEquals(0, this.policy.enabledProviders());
+		assertTrue(this.policy.include(provider.getId(), true));
+		assertEquals(1, this.policy.enabledProviders());
+
+		// a disabled provider is only enabled by the heartbeat
+		assertTrue(this.policy.include(provider.getId(), false));
+		provider.disable();
+		assertTrue(this.policy.include(provider.getId(), true));
+		assertEquals(0, this.policy.enabledProviders());
+	}
+
 	@Test
 	void testRegisteredProviders() {
 		var provider = new DefaultProvider();
@@ -175,4 +231,28 @@ class RandomPolicyTest {
 		
 	}
 
+	@Test
+	void testDeregister() {
+		var provider1 = new DefaultProvider();
+		var provider2 = new DefaultProvider();
+		assertTrue(this.policy.register(provider1));
+		assertTrue(this.policy.register(provider2));
+		this.policy.setEnabledProviders(List.of(provider1, provider2));
+
+		assertNull(this.policy.deregister(-1));
+		assertSame(provider1, this.policy.deregister(provider1.getId()));
+		assertNull(this.policy.deregister(provider1.getId()));
+		assertEquals(1, this.policy.registeredProviders());
+		assertFalse(this.policy.isEnabled(provider1));
+		assertEquals(provider2, this.policy.getProvider().orElseThrow());
+
+		// the heartbeat cannot enable it again
+		assertFalse(this.policy.updateEnabledProviders(List.of(provider1), List.of(), true));
+		assertFalse(this.policy.isEnabled(provider1));
+
+		// a slot is free again
+		assertTrue(this.policy.register(provider1));
+		assertTrue(this.policy.updateEnabledProviders(List.of(provider1), List.of(), true));
+	}
+
 }
@@ -0,0 +1,156 @@
+package org.lb;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RollingWindowTest {
+
+	private static final long SECOND = 1_000_000_000L;
+
+	/** Arbitrary origin, the clock may be negative. */
+	private static final long T0 = -123_456_789_000L;
+
+	private RollingWindow window;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		//
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		//
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		this.window = new RollingWindow(2, 4);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		this.window = null;
+	}
+
+	@Test
+	void testWrongConstructor() {
+		assertThrows(IllegalArgumentException.class, () -> new RollingWindow(0, 1));
+		assertThrows(IllegalArgumentException.class, () -> new RollingWindow(1, 0));
+	}
+
+	@Test
+	void testWrongBucket() {
+		assertThrows(IllegalArgumentException.class, () -> new RollingWindow(1, 1, 0L));
+		assertThrows(IllegalArgumentException.class, () -> new RollingWindow(1, 1, 300L));
+		assertThrows(IllegalArgumentException.class, () -> new RollingWindow(1, 1, 2_000L));
+	}
+
+	@Test
+	void testSecondBuckets() {
+		final RollingWindow seconds = new RollingWindow(1, 1, 1_000L);
+		// aligned on a bucket
+		final long t0 = -123 * SECOND;
+		// one increment every 100 ms for 60 seconds
+		for (int i = 0; i < 600; i++) {
+			seconds.increment(0, t0 + i * SECOND / 10);
+		}
+		final long now = t0 + 599 * SECOND / 10;
+		// the current bucket started 0.9 s ago
+		assertArrayEquals(new long[] { 10L }, seconds.sum(1, now));
+		assertArrayEquals(new long[] { 100L }, seconds.sum(10, now));
+		assertArrayEquals(new long[] { 600L }, seconds.sum(60, now));
+		assertArrayEquals(new long[] { 590L }, seconds.sum(60, now + SECOND));
+		assertArrayEquals(new long[] { 0L }, seconds.sum(60, now + 60 * SECOND));
+	}
+
+	@Test
+	void testWrongWindow() {
+		assertThrows(IllegalArgumentException.class, () -> this.window.sum(0, T0));
+		assertThrows(IllegalArgumentException.class, () -> this.window.sum(61, T0));
+	}
+
+	@Test
+	void testEmpty() {
+		assertArrayEquals(new long[] { 0L, 0L }, this.window.sum(60, T0));
+	}
+
+	@Test
+	void testWindows() {
+		// one increment every 100 ms for 60 seconds
+		for (int i = 0; i < 600; i++) {
+			this.window.increment(0, T0 + i * SECOND / 10);
+		}
+		this.window.increment(1, T0);
+		final long now = T0 + 599 * SECOND / 10;
+		assertArrayEquals(new long[] { 10L, 0L }, this.window.sum(1, now));
+		assertArrayEquals(new long[] { 100L, 0L }, this.window.sum(10, now));
+		assertArrayEquals(new long[] { 600L, 1L }, this.window.sum(60, now));
+
+		// the oldest buckets expire
+		assertArrayEquals(new long[] { 590L, 0L }, this.window.sum(60, now + SECOND));
+		assertArrayEquals(new long[] { 0L, 0L }, this.window.sum(60, now + 60 * SECOND));
+	}
+
+	@Test
+	void testReuse() {
+		this.window.increment(0, T0);
+		this.window.increment(0, T0);
+		// same bucket of the ring, one minute later
+		final long later = T0 + 60 * SECOND;
+		this.window.increment(1, later);
+		assertArrayEquals(new long[] { 0L, 1L }, this.window.sum(60, later));
+		assertArrayEquals(new long[] { 0L, 1L }, this.window.sum(1, later));
+	}
+
+	@Test
+	void testConcurrentIncrements() throws InterruptedException {
+		final int nThreads = 8;
+		final int reps = 100_000;
+		final long now = T0 + SECOND / 20; // middle of a bucket
+		Thread[] threads = new Thread[nThreads];
+		for (int i = 0; i < nThreads; i++) {
+			final int counter = i & 1;
+			threads[i] = new Thread(() -> {
+				for (int j = 0; j < reps; j++) {
+					this.window.increment(counter, now);
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		// no increment lost within a bucket
+		final long expected = (long) nThreads / 2 * reps;
+		assertArrayEquals(new long[] { expected, expected }, this.window.sum(1, now));
+	}
+
+	@Test
+	void testIncrementDoesNotAllocate() {
+		var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long threadId = Thread.currentThread().getId();
+		// warm up
+		for (int i = 0; i < 100_000; i++) {
+			this.window.increment(i & 1, T0 + i * 1_000L);
+		}
+		final int reps = 100_000;
+		final long before = threadBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < reps; i++) {
+			this.window.increment(i & 1, System.nanoTime());
+		}
+		final long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+		assertTrue(allocated < 1_024L, "Allocated bytes: " + allocated);
+	}
+
+}
@@ -0,0 +1,128 @@
+package org.lb;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.app.Utils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lb.policies.LBPolicyFactory;
+import org.lb.provider.DefaultProvider;
+import org.lb.provider.Provider;
+
+class ShardedRoundRobinPolicyTest {
+
+	private static final int STRIPES = 4;
+
+	private ProvidersManager policy;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		//
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		//
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		this.policy = LBPolicyFactory.createShardedRoundRobinPolicy(3, STRIPES);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		this.policy = null;
+	}
+
+	private ArrayList<Provider> registerAndEnable(int providers) {
+		ArrayList<Provider> list = new ArrayList<>();
+		for (int i = 0; i < providers; i++) {
+			var provider = new DefaultProvider();
+			assertTrue(this.policy.register(provider));
+			list.add(provider);
+		}
+		this.policy.setEnabledProviders(list);
+		return list;
+	}
+
+	@Test
+	void testWrongStripes() {
+		assertThrows(IllegalArgumentException.class, () -> {
+			LBPolicyFactory.createShardedRoundRobinPolicy(3, 0);
+		});
+	}
+
+	@Test
+	void testGetProvider1() {
+		assertTrue(this.policy.getProvider().isEmpty());
+		// registering a provider is not enough, it must be enabled!
+		this.policy.register(new DefaultProvider());
+		assertTrue(this.policy.getProvider().isEmpty());
+	}
+
+	@Test
+	void testGetProvider2() {
+		registerAndEnable(3);
+		assertEquals(3, this.policy.enabledProviders());
+
+		// a single thread uses a single stripe, i.e., plain round robin
+		final int reps = 3000;
+		for (int i = 0; i < reps; i++) {
+			this.policy.getProvider().orElseThrow().get();
+		}
+		this.policy.statistics().values().forEach(x -> assertEquals(reps / 3, x));
+	}
+
+	@Test
+	void testFairness() {
+		registerAndEnable(3);
+
+		final int nThreads = 8;
+		final int reps = 100_000;
+		CountDownLatch startSignal = new CountDownLatch(1);
+		CountDownLatch doneSignal = new CountDownLatch(nThreads);
+
+		for (int i = 0; i < nThreads; i++) {
+			Thread t = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						startSignal.await();
+						for (int i = 0; i < reps; i++) {
+							policy.getProvider().orElseThrow().get();
+						}
+					} catch (InterruptedException e) {
+						//
+					} finally {
+						doneSignal.countDown();
+					}
+				}
+			});
+			t.start();
+		}
+
+		// start all threads at the same time
+		startSignal.countDown();
+		Utils.waitCompletion(doneSignal);
+
+		Map<Integer, Long> stats = this.policy.statistics();
+		assertEquals(3, stats.size());
+		assertEquals((long) nThreads * reps, stats.values().stream().mapToLong(Long::longValue).sum());
+
+		// each stripe is within one request of perfect round robin
+		long min = Collections.min(stats.values());
+		long max = Collections.max(stats.values());
+		assertTrue(max - min <= STRIPES, "min: " + min + ", max: " + max);
+	}
+
+}
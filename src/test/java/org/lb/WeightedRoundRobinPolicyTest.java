@@ -0,0 +1,224 @@
+package org.lb;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.app.Utils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lb.policies.LBPolicyFactory;
+import org.lb.provider.DefaultProvider;
+import org.lb.provider.Provider;
+
+class WeightedRoundRobinPolicyTest {
+
+	private static final int MAX_PROVIDERS = 3;
+
+	private ProvidersManager policy;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		//
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		//
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		//
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		this.policy = null;
+	}
+
+	private List<Provider> registerAndEnable(boolean scheduleTable, int... weights) {
+		this.policy = LBPolicyFactory.createWeightedRoundRobinPolicy(MAX_PROVIDERS, scheduleTable);
+		List<Provider> list = new ArrayList<>();
+		for (int weight : weights) {
+			var provider = new DefaultProvider();
+			provider.setWeight(weight);
+			assertTrue(this.policy.register(provider));
+			list.add(provider);
+		}
+		this.policy.setEnabledProviders(list);
+		return list;
+	}
+
+	private String sequence(List<Provider> providers, int length) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			sb.append((char) ('a' + providers.indexOf(this.policy.selectProvider())));
+		}
+		return sb.toString();
+	}
+
+	@Test
+	void testGetProvider1() {
+		checkGetProvider1(false);
+	}
+
+	@Test
+	void testGetProvider1ScheduleTable() {
+		checkGetProvider1(true);
+	}
+
+	private void checkGetProvider1(boolean scheduleTable) {
+		registerAndEnable(scheduleTable);
+		assertTrue(this.policy.getProvider().isEmpty());
+		// registering a provider is not enough, it must be enabled!
+		this.policy.register(new DefaultProvider());
+		assertTrue(this.policy.getProvider().isEmpty());
+	}
+
+	@Test
+	void testSmooth() {
+		checkSmooth(false);
+	}
+
+	@Test
+	void testSmoothScheduleTable() {
+		checkSmooth(true);
+	}
+
+	private void checkSmooth(boolean scheduleTable) {
+		var providers = registerAndEnable(scheduleTable, 5, 1, 1);
+		// same sequence as nginx
+		assertEquals("aabacaa".repeat(3), sequence(providers, 21));
+	}
+
+	@Test
+	void testWeights() {
+		checkWeights(false);
+	}
+
+	@Test
+	void testWeightsScheduleTable() {
+		checkWeights(true);
+	}
+
+	private void checkWeights(boolean scheduleTable) {
+		registerAndEnable(scheduleTable, 1, 2, 3);
+		final int reps = 6000;
+		for (int i = 0; i < reps; i++) {
+			this.policy.getProvider().orElseThrow().get();
+		}
+		Map<Integer, Long> stats = this.policy.statistics();
+		List<Long> counts = new ArrayList<>();
+		this.policy.getRegisteredProviders().forEach(x -> counts.add(stats.get(x.getId()) / x.getWeight()));
+		counts.forEach(x -> assertEquals(reps / 6, x));
+	}
+
+	@Test
+	void testSetWeight() {
+		checkSetWeight(false);
+	}
+
+	@Test
+	void testSetWeightScheduleTable() {
+		checkSetWeight(true);
+	}
+
+	private void checkSetWeight(boolean scheduleTable) {
+		var providers = registerAndEnable(scheduleTable, 1, 1, 1);
+		assertEquals("abc", sequence(providers, 3));
+
+		assertFalse(this.policy.setWeight(-1, 2));
+		assertTrue(this.policy.setWeight(providers.get(0).getId(), 4));
+		assertEquals(4, providers.get(0).getWeight());
+		assertThrows(IllegalArgumentException.class, () -> {
+			this.policy.setWeight(providers.get(0).getId(), 0);
+		});
+
+		String seq = sequence(providers, 600);
+		assertEquals(400, seq.chars().filter(x -> x == 'a').count());
+		assertEquals(100, seq.chars().filter(x -> x == 'b').count());
+		// the heavy provider does not receive bursts of requests
+		assertFalse(seq.contains("aaaa"));
+	}
+
+	@Test
+	void testDisable() {
+		var providers = registerAndEnable(true, 2, 1, 1);
+		this.policy.updateEnabledProviders(List.of(), List.of(providers.get(0)));
+		assertEquals("bc".repeat(3), sequence(providers, 6));
+		// enabled again, at the end of the snapshot
+		this.policy.updateEnabledProviders(List.of(providers.get(0)), List.of());
+		// the table index is not reset
+		assertTrue("abca".repeat(3).contains(sequence(providers, 8)));
+	}
+
+	@Test
+	void testScheduleTooLarge() {
+		var providers = registerAndEnable(true, 1, 2, 3);
+		// falls back to the current weights
+		this.policy.setWeight(providers.get(0).getId(), 1 << 20);
+		String seq = sequence(providers, 1 << 20);
+		assertTrue(seq.chars().filter(x -> x == 'a').count() >= (1 << 20) - 5);
+	}
+
+	@Test
+	void testFairness() {
+		checkFairness(false);
+	}
+
+	@Test
+	void testFairnessScheduleTable() {
+		checkFairness(true);
+	}
+
+	private void checkFairness(boolean scheduleTable) {
+		registerAndEnable(scheduleTable, 1, 2, 3);
+
+		final int nThreads = 8;
+		final int reps = 60_000;
+		CountDownLatch startSignal = new CountDownLatch(1);
+		CountDownLatch doneSignal = new CountDownLatch(nThreads);
+
+		for (int i = 0; i < nThreads; i++) {
+			Thread t = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						startSignal.await();
+						for (int i = 0; i < reps; i++) {
+							policy.getProvider().orElseThrow().get();
+						}
+					} catch (InterruptedException e) {
+						//
+					} finally {
+						doneSignal.countDown();
+					}
+				}
+			});
+			t.start();
+		}
+
+		// start all threads at the same time
+		startSignal.countDown();
+		Utils.waitCompletion(doneSignal);
+
+		Map<Integer, Long> stats = this.policy.statistics();
+		long total = stats.values().stream().mapToLong(Long::longValue).sum();
+		assertEquals((long) nThreads * reps, total);
+		for (Provider x : this.policy.getRegisteredProviders()) {
+			long expected = total * x.getWeight() / 6;
+			long actual = stats.get(x.getId());
+			// concurrent selections may interleave, the skew is bounded
+			assertTrue(Math.abs(actual - expected) <= nThreads * 6, "expected: " + expected + ", actual: " + actual);
+		}
+	}
+
+}
@@ -0,0 +1,275 @@
+package org.lb.log;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LogChannelTest {
+
+	private static final long SECOND = 1_000_000_000L;
+
+	/** Keep a strong reference, otherwise the level might be lost. */
+	private static final Logger testLogger = Logger.getLogger(LogChannelTest.class.getName());
+
+	/** Collects the published records. */
+	private static final class RecordingHandler extends Handler {
+
+		final ConcurrentLinkedQueue<LogRecord> records = new ConcurrentLinkedQueue<>();
+
+		@Override
+		public void publish(LogRecord record) {
+			this.records.add(record);
+		}
+
+		@Override
+		public void flush() {
+			//
+		}
+
+		@Override
+		public void close() {
+			//
+		}
+	}
+
+	private final SimpleFormatter formatter = new SimpleFormatter();
+
+	private RecordingHandler handler;
+
+	private LogChannel channel;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		testLogger.setUseParentHandlers(false);
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		testLogger.setUseParentHandlers(true);
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		this.handler = new RecordingHandler();
+		testLogger.addHandler(this.handler);
+		testLogger.setLevel(Level.INFO);
+		this.channel = new LogChannel(16);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		testLogger.removeHandler(this.handler);
+		this.handler = null;
+		this.channel = null;
+	}
+
+	private LogEvent event(Level level, String pattern, int rate) {
+		return new LogEvent(testLogger, level, pattern, rate, this.channel);
+	}
+
+	private List<String> messages() {
+		List<String> messages = new ArrayList<>();
+		for (LogRecord record : this.handler.records) {
+			messages.add(this.formatter.formatMessage(record));
+		}
+		return messages;
+	}
+
+	@Test
+	void testWrongConstructor() {
+		assertThrows(IllegalArgumentException.class, () -> new LogChannel(0));
+		assertThrows(IllegalArgumentException.class, () -> event(Level.INFO, "Message", 0));
+	}
+
+	@Test
+	void testPublish() {
+		final LogEvent included = event(Level.INFO, "Provider {0,number,#} included: {1,choice,0#false|1#true}", 10);
+		final LogEvent disabled = event(Level.WARNING, "Disabled provider {0,number,#}", 10);
+		final LogEvent none = event(Level.SEVERE, "Not started. Call start() first", 10);
+		included.log(12345L, 1L);
+		disabled.log(7L);
+		included.log(3L, 0L);
+		none.log();
+
+		// nothing is published until the channel is drained
+		assertEquals(0, this.handler.records.size());
+		assertEquals(4, this.channel.drain());
+		assertEquals(List.of("Provider 12345 included: true", "Disabled provider 7", "Provider 3 included: false",
+				"Not started. Call start() first"), messages());
+
+		final LogRecord record = this.handler.records.peek();
+		assertEquals(Level.INFO, record.getLevel());
+		assertEquals(testLogger.getName(), record.getLoggerName());
+		assertEquals(testLogger.getName(), record.getSourceClassName());
+		assertEquals(0, this.channel.drain());
+	}
+
+	@Test
+	void testRateLimit() {
+		final LogEvent event = event(Level.WARNING, "No provider found", 3);
+		final long now = System.nanoTime();
+		for (int i = 0; i < 10; i++) {
+			event.log();
+		}
+		assertEquals(7L, event.getSuppressed());
+		assertEquals(3, this.channel.drain(now));
+
+		// the suppressed messages are reported once per second, then the rate is
+		// granted again
+		assertEquals(1, this.channel.drain(now + SECOND));
+		assertEquals("7 messages suppressed: No provider found", messages().get(3));
+		assertEquals(Level.WARNING, new ArrayList<>(this.handler.records).get(3).getLevel());
+		for (int i = 0; i < 5; i++) {
+			event.log();
+		}
+		assertEquals(9L, event.getSuppressed());
+		assertEquals(4, this.channel.drain(now + 2 * SECOND));
+		assertEquals("2 messages suppressed: No provider found", messages().get(7));
+
+		// nothing to report
+		assertEquals(0, this.channel.drain(now + 3 * SECOND));
+		assertEquals(9L, event.getSuppressed());
+	}
+
+	@Test
+	void testFull() {
+		final LogEvent event = event(Level.INFO, "Provider {0,number,#} weight: {1,number,#}", 1_000);
+		for (int lap = 0; lap < 3; lap++) {
+			for (int i = 0; i < 20; i++) {
+				event.log(i, lap);
+			}
+			assertEquals(16, this.channel.drain());
+			assertEquals((lap + 1) * 4L, event.getSuppressed());
+		}
+		List<String> messages = messages();
+		assertEquals(48, messages.size());
+		assertEquals("Provider 0 weight: 2", messages.get(32));
+		assertEquals("Provider 15 weight: 2", messages.get(47));
+	}
+
+	@Test
+	void testLevel() {
+		final LogEvent event = event(Level.INFO, "Heartbeat task...", 1);
+		testLogger.setLevel(Level.WARNING);
+		event.log();
+		event.log();
+		assertEquals(0, this.channel.drain());
+		assertEquals(0L, event.getSuppressed());
+
+		testLogger.setLevel(Level.INFO);
+		event.log();
+		assertEquals(1, this.channel.drain());
+	}
+
+	@Test
+	void testConcurrentProducers() throws InterruptedException {
+		final int nThreads = 4;
+		final int logs = 100_000;
+		final LogEvent event = event(Level.INFO, "Message {0,number,#}", Integer.MAX_VALUE);
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final Thread consumer = new Thread(() -> {
+			while (running.get()) {
+				this.channel.drain();
+			}
+		});
+		consumer.start();
+
+		final CountDownLatch latch = new CountDownLatch(nThreads);
+		for (int t = 0; t < nThreads; t++) {
+			final int thread = t;
+			new Thread(() -> {
+				for (int i = 0; i < logs; i++) {
+					event.log(thread);
+				}
+				latch.countDown();
+			}).start();
+		}
+		latch.await(10, TimeUnit.SECONDS);
+		running.set(false);
+		consumer.join();
+		this.channel.drain();
+
+		// each message was either published or suppressed
+		assertEquals((long) nThreads * logs, this.handler.records.size() + event.getSuppressed());
+	}
+
+	@Test
+	void testDrainerSurvivesHandlerFailure() throws InterruptedException {
+		final Handler failing = new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				if (record.getMessage().equals("First")) {
+					throw new IllegalStateException("Handler failure");
+				}
+			}
+
+			@Override
+			public void flush() {
+				//
+			}
+
+			@Override
+			public void close() {
+				//
+			}
+		};
+		testLogger.addHandler(failing);
+		try {
+			this.channel.startDrainer("log-test");
+			event(Level.INFO, "First", 10).log();
+			event(Level.INFO, "Second", 10).log();
+			final long deadline = System.nanoTime() + 5 * SECOND;
+			while (this.handler.records.size() < 2 && System.nanoTime() < deadline) {
+				Thread.sleep(LogChannel.DRAIN_INTERVAL_MS);
+			}
+		} finally {
+			testLogger.removeHandler(failing);
+		}
+		// the first message was published to this handler before the failure
+		assertEquals(List.of("First", "Second"), messages());
+	}
+
+	@Test
+	void testLogDoesNotAllocate() {
+		var threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long threadId = Thread.currentThread().getId();
+		final LogEvent event = event(Level.WARNING, "Provider {0,number,#} weight: {1,number,#}", 8);
+		// warm up both paths, so that none is compiled while measuring
+		final long now = System.nanoTime();
+		for (int round = 1; round <= 200; round++) {
+			for (int i = 0; i < 500; i++) {
+				event.log(i, i);
+			}
+			this.channel.drain(now + round * SECOND);
+		}
+		this.channel.drain(now + 201 * SECOND);
+		final int reps = 100_000;
+		final long before = threadBean.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < reps; i++) {
+			// published, then suppressed
+			event.log(i, i);
+		}
+		final long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+		assertTrue(allocated < 1_024L, "Allocated bytes: " + allocated);
+	}
+
+}
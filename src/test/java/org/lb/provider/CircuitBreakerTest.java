@@ -0,0 +1,142 @@
+package org.lb.provider;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.lb.provider.CircuitBreaker.State;
+
+class CircuitBreakerTest {
+
+	private static final long OPEN_MILLIS = 100L;
+
+	private CircuitBreaker breaker;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		//
+	}
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		//
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		breaker = new CircuitBreaker(3, OPEN_MILLIS, 2);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		breaker = null;
+	}
+
+	@Test
+	void testWrongConstructor() {
+		assertThrows(IllegalArgumentException.class, () -> {
+			new CircuitBreaker(0, OPEN_MILLIS, 1);
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			new CircuitBreaker(1, -1L, 1);
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			new CircuitBreaker(1, OPEN_MILLIS, CircuitBreaker.MAX_COUNT + 1);
+		});
+	}
+
+	@Test
+	void testClosed() {
+		assertEquals(State.CLOSED, breaker.getState());
+		for (int i = 0; i < 100; i++) {
+			assertTrue(breaker.tryAcquire());
+			// failures must be consecutive
+			breaker.onFailure();
+			breaker.onFailure();
+			breaker.onSuccess();
+		}
+		assertEquals(State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	void testOpen() {
+		assertFalse(breaker.onFailure());
+		assertFalse(breaker.onFailure());
+		assertTrue(breaker.tryAcquire());
+		assertTrue(breaker.onFailure());
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+		// late outcomes are ignored
+		assertFalse(breaker.onFailure());
+		breaker.onSuccess();
+		assertEquals(State.OPEN, breaker.getState());
+	}
+
+	@Test
+	void testHalfOpen() throws InterruptedException {
+		open();
+		Thread.sleep(2 * OPEN_MILLIS);
+
+		// only 2 trials are let through
+		assertTrue(breaker.tryAcquire());
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		assertTrue(breaker.tryAcquire());
+		assertFalse(breaker.tryAcquire());
+
+		// a trial not sent can be taken by another request
+		breaker.release();
+		assertTrue(breaker.tryAcquire());
+
+		breaker.onSuccess();
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		breaker.onSuccess();
+		assertEquals(State.CLOSED, breaker.getState());
+		assertTrue(breaker.tryAcquire());
+	}
+
+	@Test
+	void testHalfOpenFailure() throws InterruptedException {
+		open();
+		Thread.sleep(2 * OPEN_MILLIS);
+
+		assertTrue(breaker.tryAcquire());
+		assertTrue(breaker.onFailure());
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+	}
+
+	@Test
+	void testConcurrentTrials() throws InterruptedException {
+		open();
+		Thread.sleep(2 * OPEN_MILLIS);
+
+		final int threads = 8;
+		final AtomicInteger permits = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			new Thread(() -> {
+				for (int j = 0; j < 1000; j++) {
+					if (breaker.tryAcquire()) {
+						permits.incrementAndGet();
+					}
+				}
+				done.countDown();
+			}).start();
+		}
+		done.await();
+		assertEquals(2, permits.get());
+	}
+
+	private void open() {
+		for (int i = 0; i < 3; i++) {
+			breaker.onFailure();
+		}
+		assertEquals(State.OPEN, breaker.getState());
+	}
+}
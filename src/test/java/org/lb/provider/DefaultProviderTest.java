@@ -2,11 +2,18 @@ package org.lb.provider;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.lb.log.LogEvent;
 
 class DefaultProviderTest {
 	
@@ -69,6 +76,43 @@ class DefaultProviderTest {
 		assertTrue(this.provider.disable());
 	}
 
+	@Test
+	void testDisableLogsTransition() {
+		final Logger logger = Logger.getLogger(DefaultProvider.class.getName());
+		final Long id = Long.valueOf(this.provider.getId());
+		final List<LogRecord> records = new CopyOnWriteArrayList<>();
+		final Handler handler = new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				if (record.getMessage().startsWith("Disabled provider") && id.equals(record.getParameters()[0])) {
+					records.add(record);
+				}
+			}
+
+			@Override
+			public void flush() {
+				//
+			}
+
+			@Override
+			public void close() {
+				//
+			}
+		};
+		logger.addHandler(handler);
+		try {
+			// the heartbeat disables a provider down at each cycle
+			for (int i = 0; i < 3; i++) {
+				this.provider.disable();
+			}
+			LogEvent.flush();
+			// once, unless other tests exhausted the rate of the message
+			assertTrue(records.size() <= 1, "Records: " + records.size());
+		} finally {
+			logger.removeHandler(handler);
+		}
+	}
+
 	@Test
 	void testIsEnabled() {
 		assertTrue(this.provider.isEnabled());
@@ -104,10 +148,49 @@ class DefaultProviderTest {
 		}
 	}
 
+	@Test
+	void testPending() {
+		assertEquals(0, this.provider.getPending());
+		this.provider.increasePending();
+		this.provider.increasePending();
+		assertEquals(2, this.provider.getPending());
+		this.provider.decreasePending();
+		assertEquals(1, this.provider.getPending());
+	}
+
+	@Test
+	void testTryIncreasePending() {
+		assertTrue(this.provider.tryIncreasePending(2));
+		assertTrue(this.provider.tryIncreasePending(2));
+		assertFalse(this.provider.tryIncreasePending(2));
+		assertEquals(2, this.provider.getPending());
+		this.provider.decreasePending();
+		assertTrue(this.provider.tryIncreasePending(2));
+	}
+
+	@Test
+	void testCapacity() {
+		assertEquals(Integer.MAX_VALUE, this.provider.getCapacity());
+		assertEquals(5, new DefaultProvider(1, 5).getCapacity());
+		assertThrows(IllegalArgumentException.class, () -> {
+			new DefaultProvider(1, 0);
+		});
+	}
+
 	@Test
 	void testEqualsObject() {
 		var provider1 = new DefaultProvider();
 		assertNotEquals(provider, provider1);
 	}
 
+	@Test
+	void testCircuitBreaker() {
+		assertEquals(CircuitBreaker.State.CLOSED, this.provider.getCircuitBreaker().getState());
+		var breaker = new CircuitBreaker();
+		assertSame(breaker, new DefaultProvider(1, 1, breaker).getCircuitBreaker());
+		assertThrows(NullPointerException.class, () -> {
+			new DefaultProvider(1, 1, null);
+		});
+	}
+
 }